@@ -0,0 +1,112 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CacheClient配置 hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheClientProperties {
+    //互斥重建：没抢到锁时每次等待重建通知的最长时间（毫秒）、最多等待几次，之后直接查库
+    private long mutexWaitMs = 200;
+    private int mutexAttempts = 3;
+    //写入缓存使用的编码：json、binary（读取时按首字节自动识别，两种格式可以共存）
+    private String codec = "json";
+    //binary编码超过多少字节时尝试压缩
+    private int compressThreshold = 512;
+    //按key前缀开启的本地一级缓存
+    private List<Local> local = new ArrayList<>();
+    //按key前缀的布隆过滤器，不存在的id直接返回，不访问Redis和数据库
+    private List<Bloom> bloom = new ArrayList<>();
+    //按key前缀的过期策略，防止缓存雪崩
+    private List<Ttl> ttl = new ArrayList<>();
+    //所有key前缀共用的重建线程池
+    private Rebuild rebuild = new Rebuild();
+    //启动时（以及按需）预热的数据
+    private List<Warm> warm = new ArrayList<>();
+    //启动时最多等待热点数据预热多久（毫秒），超时后照常接收流量，剩余数据继续在后台预热
+    private long warmReadyTimeoutMs = 60000;
+    //缓存失效outbox的处理
+    private Outbox outbox = new Outbox();
+
+    @Data
+    public static class Local {
+        //key前缀，例如 cache:shop:
+        private String prefix;
+        //最多缓存的key数量
+        private int capacity = 10000;
+        //本地缓存有效期（毫秒），也是错过失效广播时最长的不一致时间
+        private long ttlMs = 5000;
+    }
+
+    @Data
+    public static class Bloom {
+        //key前缀，例如 cache:shop:
+        private String prefix;
+        //启动时扫描id的表，例如 tb_shop
+        private String table;
+        //预计数据量、误判率
+        private long expectedInsertions = 1000000;
+        private double fpp = 0.01;
+    }
+
+    @Data
+    public static class Ttl {
+        //key前缀，例如 cache:shop:
+        private String prefix;
+        //有效期随机延长的比例，0.1代表延长0~10%
+        private double jitter = 0.1;
+        //是否开启提前刷新（XFetch）：临近过期时由个别读请求按概率触发后台重建
+        private boolean earlyRefresh = false;
+        //提前刷新的系数，越大越早刷新
+        private double beta = 1.0;
+    }
+
+    @Data
+    public static class Rebuild {
+        //重建线程数
+        private int threads = 10;
+        //最多排队的重建任务数，满了丢弃最早排队的
+        private int queueCapacity = 1000;
+    }
+
+    @Data
+    public static class Warm {
+        //key前缀，例如 cache:shop:
+        private String prefix;
+        //表、实体类（按列名映射到驼峰属性）
+        private String table;
+        private Class<?> entity;
+        //热度排序，越热的越先写入，例如 sold DESC
+        private String orderBy = "id";
+        //最热的多少条写入完成后才接收流量
+        private int topN = 1000;
+        //每批写入Redis的条数（一次pipeline）
+        private int batchSize = 500;
+        //有效期（秒）
+        private long ttlSeconds = 1800;
+        //是否写成逻辑过期数据（按queryWithLogicalExpire读取的数据）
+        private boolean logicalExpire = true;
+    }
+
+    @Data
+    public static class Outbox {
+        //每次补偿处理的条数
+        private int batchSize = 100;
+        //认领后多久未处理完可以被重新认领（毫秒）
+        private long leaseMs = 30000;
+        //延迟双删的间隔（毫秒），0代表不做第二次删除
+        private long secondDeleteDelayMs = 1000;
+        //重试：最多次数、第一次间隔、最大间隔（毫秒）
+        private int maxRetries = 10;
+        private long retryBaseMs = 1000;
+        private long retryMaxMs = 300000;
+    }
+}
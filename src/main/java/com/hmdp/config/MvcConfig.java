@@ -1,18 +1,28 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.TokenBucketRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private TokenBucketRateLimiter rateLimiter;
+    //管理员用户id，逗号分隔；为空时运维接口谁都不能访问
+    @Value("${hmdp.admin.user-ids:}")
+    private List<Long> adminUserIds;
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
@@ -24,8 +34,14 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/shop-type/**",
                         "/upload/**",
-                        "/voucher/**"
-                ).order(1);
+                        "/voucher/**",
+                        "/actuator/**"
+                ).order(2);
+        //运维接口拦截器（登录且是管理员）
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/voucher/seckill/reconcile/**").order(3);
+        //限流拦截器（在token刷新之后，才能按用户限流；在登录拦截之前，被限流的请求尽早返回）
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter)).addPathPatterns("/**").order(1);
         //token刷新拦截器（避免token过期用户异常退出）
         registry.addInterceptor( new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);//order0优先级高
     }
@@ -0,0 +1,37 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 限流配置 hmdp.rate-limit
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+    private boolean enabled = true;
+    //本地令牌桶多久未访问从内存移除
+    private long idleMs = 60000;
+    //本地令牌桶数量上限，达到上限后新出现的用户/IP不限流直接放行，等空闲的桶被移除
+    private int maxBuckets = 100000;
+    //可信的反向代理地址，只有来自这些地址的请求才取X-Real-IP作为客户端IP
+    private List<String> trustedProxies = new ArrayList<>();
+    private List<Rule> rules = new ArrayList<>();
+
+    @Data
+    public static class Rule {
+        //路由（Ant风格）
+        private String pattern;
+        //限流维度：user、ip、route
+        private String dimension = "user";
+        //桶容量（允许的突发）
+        private int capacity;
+        //每秒补充的令牌数
+        private double rate;
+    }
+}
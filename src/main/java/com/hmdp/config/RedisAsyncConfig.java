@@ -0,0 +1,112 @@
+package com.hmdp.config;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+public class RedisAsyncConfig {
+    /**
+     * 异步接口专用的Lettuce客户端（独立的IO线程，不与StringRedisTemplate的连接池共用）
+     * <p>
+     * 与StringRedisTemplate读取同一份spring.redis配置：配置了cluster时使用集群客户端，配置了sentinel时经哨兵发现主节点，
+     * url / ssl / 密码 / 超时 / 客户端名称同样生效
+     * @return
+     */
+    @Bean(destroyMethod = "shutdown")
+    public AbstractRedisClient asyncRedisClient(RedisProperties properties) {
+        // 1.集群
+        RedisProperties.Cluster cluster = properties.getCluster();
+        if (cluster != null && cluster.getNodes() != null && !cluster.getNodes().isEmpty()) {
+            List<RedisURI> uris = new ArrayList<>();
+            for (String node : cluster.getNodes()) {
+                int i = node.lastIndexOf(':');
+                uris.add(apply(RedisURI.builder().withHost(node.substring(0, i))
+                        .withPort(Integer.parseInt(node.substring(i + 1))), properties).build());
+            }
+            return RedisClusterClient.create(uris);
+        }
+        // 2.哨兵
+        RedisProperties.Sentinel sentinel = properties.getSentinel();
+        if (sentinel != null && sentinel.getNodes() != null && !sentinel.getNodes().isEmpty()) {
+            RedisURI.Builder builder = RedisURI.builder().withSentinelMasterId(sentinel.getMaster());
+            for (String node : sentinel.getNodes()) {
+                int i = node.lastIndexOf(':');
+                String host = node.substring(0, i);
+                int port = Integer.parseInt(node.substring(i + 1));
+                if (sentinel.getPassword() != null) {
+                    builder.withSentinel(host, port, sentinel.getPassword());
+                } else {
+                    builder.withSentinel(host, port);
+                }
+            }
+            return RedisClient.create(apply(builder, properties).withDatabase(properties.getDatabase()).build());
+        }
+        // 3.单机：url优先（rediss://表示SSL），否则用host/port
+        if (StringUtils.hasText(properties.getUrl())) {
+            RedisURI uri = RedisURI.create(properties.getUrl());
+            if (properties.getTimeout() != null) {
+                uri.setTimeout(properties.getTimeout());
+            }
+            if (StringUtils.hasText(properties.getClientName())) {
+                uri.setClientName(properties.getClientName());
+            }
+            return RedisClient.create(uri);
+        }
+        return RedisClient.create(apply(RedisURI.builder().withHost(properties.getHost())
+                .withPort(properties.getPort()), properties).withDatabase(properties.getDatabase()).build());
+    }
+
+    /**
+     * 一条连接上可以同时有大量未完成的命令（多路复用），请求线程发出命令后即可返回
+     * <p>
+     * 集群和单机的异步命令接口不同，这里统一暴露两者共有的RedisClusterAsyncCommands；连接随客户端shutdown关闭
+     * @return
+     */
+    @Bean
+    public RedisClusterAsyncCommands<String, String> asyncRedisCommands(AbstractRedisClient asyncRedisClient) {
+        if (asyncRedisClient instanceof RedisClusterClient) {
+            return ((RedisClusterClient) asyncRedisClient).connect().async();
+        }
+        return ((RedisClient) asyncRedisClient).connect().async();
+    }
+
+    /**
+     * 值为字节数组的连接，异步读取CacheClient的缓存（缓存值可能是二进制编码）
+     * @return
+     */
+    @Bean
+    public RedisClusterAsyncCommands<String, byte[]> asyncBinaryRedisCommands(AbstractRedisClient asyncRedisClient) {
+        RedisCodec<String, byte[]> codec = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+        if (asyncRedisClient instanceof RedisClusterClient) {
+            return ((RedisClusterClient) asyncRedisClient).connect(codec).async();
+        }
+        return ((RedisClient) asyncRedisClient).connect(codec).async();
+    }
+
+    private static RedisURI.Builder apply(RedisURI.Builder builder, RedisProperties properties) {
+        builder.withSsl(properties.isSsl());
+        if (properties.getPassword() != null) {
+            builder.withPassword(properties.getPassword());
+        }
+        if (properties.getTimeout() != null) {
+            builder.withTimeout(properties.getTimeout());
+        }
+        if (StringUtils.hasText(properties.getClientName())) {
+            builder.withClientName(properties.getClientName());
+        }
+        return builder;
+    }
+}
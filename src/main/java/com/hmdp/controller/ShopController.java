@@ -4,12 +4,17 @@ package com.hmdp.controller;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSnapshot;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -32,9 +37,27 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public CompletableFuture<ResponseEntity<?>> queryShopById(@PathVariable("id") Long id) {
+        //异步处理：等待Redis期间不占用Tomcat线程
+        return shopService.querySnapshotAsync(id).thenApply(this::toResponse);
+    }
 
-        return shopService.queryById(id);
+    /**
+     * 直接返回序列化好的响应体；带上ETag、Last-Modified，
+     * 客户端的If-None-Match/If-Modified-Since没变时由Spring返回304（不写响应体）
+     */
+    private ResponseEntity<?> toResponse(ShopSnapshot snapshot) {
+        if (snapshot == null) {
+            return ResponseEntity.ok(Result.fail("店铺不存在"));
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON);
+        if (snapshot.getLastModified() >= 0) {
+            builder.lastModified(snapshot.getLastModified());
+        }
+        return builder.body(snapshot.getBody());
     }
 
     /**
@@ -44,10 +67,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
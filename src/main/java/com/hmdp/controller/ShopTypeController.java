@@ -2,14 +2,21 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -26,9 +33,38 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
-        List<ShopType> typeList = typeService
-                .query().orderByAsc("sort").list();
-        return Result.ok(typeList);
+    public ResponseEntity<byte[]> queryTypeList(WebRequest request) {
+        // 内存快照，不查库、不访问Redis、不做JSON序列化
+        ShopTypeSnapshot snapshot = typeService.querySnapshot();
+        // 客户端带的If-None-Match与ETag一致，直接返回304
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
+    }
+
+    /**
+     * 新增店铺类型
+     * @param shopType 类型数据
+     * @return 类型id
+     */
+    @PostMapping
+    public Result saveType(@RequestBody ShopType shopType) {
+        // 写入数据库，提交后各节点重新加载类型快照
+        return typeService.saveType(shopType);
+    }
+
+    /**
+     * 更新店铺类型
+     * @param shopType 类型数据
+     * @return 无
+     */
+    @PutMapping
+    public Result updateType(@RequestBody ShopType shopType) {
+        return typeService.updateType(shopType);
     }
 }
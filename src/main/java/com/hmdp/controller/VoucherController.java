@@ -2,7 +2,9 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillStockReport;
 import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import org.springframework.web.bind.annotation.*;
 
@@ -23,6 +25,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -54,4 +59,18 @@ public class VoucherController {
     public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
        return voucherService.queryVoucherOfShop(shopId);
     }
+
+    /**
+     * 秒杀库存对账：比较Redis库存、下单用户与数据库库存、订单（仅管理员，见AdminInterceptor）
+     * @param voucherId 优惠券id
+     * @return 对账结果
+     */
+    @GetMapping("/seckill/reconcile/{id}")
+    public Result reconcileSeckillStock(@PathVariable("id") Long voucherId) {
+        SeckillStockReport report = seckillVoucherService.reconcile(voucherId);
+        if (report == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        return Result.ok(report);
+    }
 }
@@ -0,0 +1,36 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 秒杀库存对账结果：Redis（库存+下单用户）与数据库（库存+订单）各自应等于初始库存
+ */
+@Data
+public class SeckillStockReport {
+    private Long voucherId;
+    /**
+     * Redis各桶库存之和
+     */
+    private Long redisStock;
+    /**
+     * Redis各桶下单用户数之和
+     */
+    private Long redisOrders;
+    /**
+     * tb_seckill_voucher.stock
+     */
+    private Integer dbStock;
+    /**
+     * tb_voucher_order订单数
+     */
+    private Integer dbOrders;
+    /**
+     * 写回模式下尚未刷到数据库的库存扣减
+     */
+    private Integer pendingDelta;
+    /**
+     * 已抢到但还未落库的订单（队列中）
+     */
+    private Long queuedOrders;
+    private Boolean consistent;
+}
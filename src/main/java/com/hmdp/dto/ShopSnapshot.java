@@ -0,0 +1,27 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Shop;
+import lombok.Getter;
+
+/**
+ * 店铺详情的响应快照：店铺、序列化好的响应体，以及校验值（ETag、Last-Modified）
+ * <p>
+ * 店铺对象没变时直接复用body，不再做JSON序列化；客户端带的校验值没变时返回304。
+ */
+@Getter
+public class ShopSnapshot {
+    private final Shop shop;
+    //Result.ok(shop)序列化后的JSON，调用方不要修改
+    private final byte[] body;
+    //body内容的哈希，带引号的强ETag
+    private final String etag;
+    //updateTime的毫秒数，为空时为-1
+    private final long lastModified;
+
+    public ShopSnapshot(Shop shop, byte[] body, String etag, long lastModified) {
+        this.shop = shop;
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+}
@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照：类型列表、对应的版本号、序列化好的响应体和强ETag
+ * <p>
+ * 请求直接返回body，不查库、不访问Redis、不做JSON序列化；类型有变化时整体替换成新快照。
+ */
+@Getter
+public class ShopTypeSnapshot {
+    //Redis中的版本号
+    private final long version;
+    private final List<ShopType> types;
+    //Result.ok(types)序列化后的JSON，调用方不要修改
+    private final byte[] body;
+    //body内容的哈希，带引号的强ETag
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, String etag) {
+        this.version = version;
+        this.types = Collections.unmodifiableList(types);
+        this.body = body;
+        this.etag = etag;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 缓存失效outbox，与数据修改在同一个事务中写入
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 变更的数据类型，例如shop
+     */
+    private String aggregateType;
+
+    /**
+     * 变更的数据id
+     */
+    private Long aggregateId;
+
+    /**
+     * 阶段 0：第一次删除缓存；1：延迟双删
+     */
+    private Integer phase;
+
+    /**
+     * 状态 0：待处理；1：超过最大重试次数
+     */
+    private Integer status;
+
+    /**
+     * 当前阶段已重试次数
+     */
+    private Integer retries;
+
+    /**
+     * 下次处理时间
+     */
+    private LocalDateTime nextRetryTime;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+
+}
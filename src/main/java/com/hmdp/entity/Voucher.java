@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 秒杀库存分桶数，热门券可拆到多个Redis key，默认1
+     */
+    @TableField(exist = false)
+    private Integer buckets;
+
     /**
      * 生效时间
      */
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,17 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 插入订单，主键或(user_id, voucher_id)唯一键冲突时忽略
+     * @param order 订单
+     * @return 插入行数，0代表订单已存在或用户已购买过
+     */
+    int insertIgnore(@Param("order") VoucherOrder order);
+
+    /**
+     * 多行插入订单（只写id、user_id、voucher_id，其余字段使用表默认值），冲突的行忽略
+     * @param orders 订单列表
+     * @return 实际插入行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
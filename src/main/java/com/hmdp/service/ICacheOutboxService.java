@@ -0,0 +1,17 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.CacheOutbox;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 记录一次数据变更，必须在修改数据的事务中调用；事务提交后立即交给CacheOutboxRelay处理
+     */
+    void record(String aggregateType, Long aggregateId);
+}
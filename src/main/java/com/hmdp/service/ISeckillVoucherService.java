@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.SeckillStockReport;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,5 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    SeckillStockReport reconcile(Long voucherId);
 }
@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSnapshot;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +19,16 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    CompletableFuture<Result> queryByIdAsync(Long id);
+
+    /**
+     * 店铺详情的响应快照（序列化好的响应体和校验值），店铺不存在时为null
+     */
+    CompletableFuture<ShopSnapshot> querySnapshotAsync(Long id);
+
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
+
+    void saveShop2Redis(Long id, Long expireSeconds);
 }
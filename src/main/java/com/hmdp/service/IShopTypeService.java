@@ -1,5 +1,7 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +15,18 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 当前的类型列表快照（内存中，不查库）
+     */
+    ShopTypeSnapshot querySnapshot();
+
+    /**
+     * 新增类型，提交后所有节点重新加载快照
+     */
+    Result saveType(ShopType shopType);
+
+    /**
+     * 修改类型，提交后所有节点重新加载快照
+     */
+    Result updateType(ShopType shopType);
 }
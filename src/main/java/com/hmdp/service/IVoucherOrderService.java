@@ -3,6 +3,10 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -16,5 +20,13 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder vouchOrder);
+    CompletableFuture<Result> seckillVoucherAsync(Long voucherId);
+
+    Result queryOrderStatus(Long orderId);
+
+    SseEmitter subscribeOrderStatus(Long orderId);
+
+    boolean createVoucherOrder(VoucherOrder vouchOrder);
+
+    List<Long> createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -0,0 +1,50 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheOutboxRelay;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ */
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    @Resource
+    @Lazy
+    private CacheOutboxRelay outboxRelay;
+
+    @Override
+    public void record(String aggregateType, Long aggregateId) {
+        // 1.与数据修改在同一个事务中写入outbox
+        CacheOutbox outbox = new CacheOutbox()
+                .setAggregateType(aggregateType)
+                .setAggregateId(aggregateId)
+                .setPhase(CacheOutboxRelay.PHASE_FIRST)
+                .setStatus(CacheOutboxRelay.STATUS_PENDING)
+                .setRetries(0)
+                .setNextRetryTime(CacheOutboxRelay.now());
+        save(outbox);
+        // 2.事务提交后立即处理（没赶上的由定时任务补偿）；事务回滚则outbox一起回滚
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    outboxRelay.kick(outbox);
+                }
+            });
+        } else {
+            outboxRelay.kick(outbox);
+        }
+    }
+}
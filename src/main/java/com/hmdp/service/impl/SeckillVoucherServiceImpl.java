@@ -1,11 +1,22 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.SeckillStockReport;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SeckillBuckets;
+import com.hmdp.utils.SeckillStockSyncer;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKETS_KEY;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -17,4 +28,43 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private SeckillStockSyncer stockSyncer;
+
+    @Override
+    public SeckillStockReport reconcile(Long voucherId) {
+        SeckillVoucher voucher = getById(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        // 1.Redis：各桶库存、下单用户数
+        String bucketsStr = stringRedisTemplate.opsForValue().get(SECKILL_BUCKETS_KEY + voucherId);
+        int buckets = bucketsStr == null ? 1 : Integer.parseInt(bucketsStr);
+        long redisStock = 0;
+        long redisOrders = 0;
+        for (int i = 0; i < buckets; i++) {
+            String stock = stringRedisTemplate.opsForValue().get(SeckillBuckets.stockKey(voucherId, i, buckets));
+            redisStock += stock == null ? 0 : Long.parseLong(stock);
+            Long size = stringRedisTemplate.opsForSet().size(SeckillBuckets.orderKey(voucherId, i, buckets));
+            redisOrders += size == null ? 0 : size;
+        }
+        // 2.数据库：库存、订单数、写回模式下还没刷回的扣减
+        Integer dbOrders = voucherOrderMapper.selectCount(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        int pendingDelta = stockSyncer.pending(voucherId);
+        // 3.两边都应等于初始库存：Redis库存+已抢用户 == 数据库库存-未刷回扣减+订单数
+        SeckillStockReport report = new SeckillStockReport();
+        report.setVoucherId(voucherId);
+        report.setRedisStock(redisStock);
+        report.setRedisOrders(redisOrders);
+        report.setDbStock(voucher.getStock());
+        report.setDbOrders(dbOrders);
+        report.setPendingDelta(pendingDelta);
+        report.setQueuedOrders(redisOrders - dbOrders);
+        report.setConsistent(redisStock + redisOrders == voucher.getStock() - pendingDelta + dbOrders);
+        return report;
+    }
 }
@@ -1,26 +1,42 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSnapshot;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheBloomFilters;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheOutboxRelay;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -36,10 +52,31 @@ import static com.hmdp.utils.RedisConstants.*;
 @Service
 @JsonFormat
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    //outbox中店铺变更的数据类型
+    private static final String OUTBOX_SHOP = "shop";
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private CacheBloomFilters bloomFilters;
+    @Resource
+    private ICacheOutboxService outboxService;
+    @Resource
+    private CacheOutboxRelay outboxRelay;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private ObjectMapper objectMapper;
+    //处理异步接口回调的应用线程池（Spring Boot自动配置，见spring.task.execution）
+    @Resource
+    private Executor applicationTaskExecutor;
+    @Value("${hmdp.shop.snapshot-capacity:10000}")
+    private int snapshotCapacity;
+    //店铺id -> 详情响应快照，updateTime没变时复用序列化结果
+    private LRUCache<Long, ShopSnapshot> snapshots;
+
     @Override
     public Result queryById(Long id) {
         //缓存穿透解决缓存击穿
@@ -61,154 +98,152 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return  Result.ok(shop);
     }
 
-    //缓存穿透
-    public Shop queryWithPassThrough (Long id){
-        //1.从redis中查询商户信息
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY+id);
-        //2.判断redis中商户是否存在
-        if(StrUtil.isNotBlank(shopJson)){
-            //3.存在，直接返回（有值的情况）
-            return JSONUtil.toBean(shopJson, Shop.class);//string转成对象;
-        }
-        //判断命中的是否是空值(空字符串)
-        if(shopJson!=null){
-            return null;
-        }
-        //4.不存在，根据id查询数据库
-        Shop shop = getById(id);
-        //5.不存在，返回错误
-        if(shop==null){
-            //将空值写入redis（避免缓存穿透，给数据库带来压力）
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,"", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        //6.存在，保存商户信息到redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);//对象转成string
-        //7.返回
-        return shop;
+    @Override
+    public CompletableFuture<Result> queryByIdAsync(Long id) {
+        // 逻辑过期：热点店铺命中本地缓存直接返回；否则异步读取Redis，请求线程不等待
+        return cacheClient.queryWithLogicalExpireAsync(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS)
+                .thenApply(shop -> shop == null ? Result.fail("店铺不存在") : Result.ok(shop));
     }
 
+    @Override
+    public CompletableFuture<ShopSnapshot> querySnapshotAsync(Long id) {
+        // 热点店铺命中本地缓存时拿到的是同一个对象，不需要反序列化；序列化和摘要在应用线程池中计算，不占用Lettuce的IO线程
+        return cacheClient.queryWithLogicalExpireAsync(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS)
+                .thenApplyAsync(shop -> shop == null ? null : snapshot(shop), applicationTaskExecutor);
+    }
 
-    private boolean tryLock(String key){// 尝试获取锁
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent( key, "1", 10, TimeUnit.SECONDS);//setIfAbsent如果存在
-        return BooleanUtil.isTrue(flag);//拆箱
+    /**
+     * 店铺对应的响应快照：还是同一个店铺对象（命中本地缓存）时复用，否则重新序列化
+     * <p>
+     * 缓存值可能是二进制编码，JSON编码中的时间格式也与接口不同，所以不直接转发Redis中的字节，
+     * 而是用MVC的ObjectMapper序列化。ETag是响应体的哈希，内容变了ETag一定变；
+     * 本地缓存的对象在店铺修改时会被所有节点替换，快照随之失效。
+     */
+    private ShopSnapshot snapshot(Shop shop) {
+        ShopSnapshot cached = snapshots.get(shop.getId(), false);
+        if (cached != null && cached.getShop() == shop) {
+            return cached;
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(shop));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        long lastModified = shop.getUpdateTime() == null
+                ? -1 : shop.getUpdateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        ShopSnapshot snapshot = new ShopSnapshot(shop, body, etag, lastModified);
+        snapshots.put(shop.getId(), snapshot);
+        return snapshot;
     }
-    private void unLock(String key){// 释放锁
-        stringRedisTemplate.delete(key);
+
+    //缓存穿透（缓存值的编码由CacheClient统一处理）
+    public Shop queryWithPassThrough (Long id){
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
+
     //互斥锁解决缓存击穿（雪崩的redis宕机，击穿是太多相同的key访问(都是为了防止数据库压力过大)）
+    //本节点内合并相同key的并发请求，节点之间用互斥锁，没抢到锁的等待重建完成通知，不再休眠重试
     public Shop queryWithMutex (Long id){
-        //1.从redis中查询商户信息
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY+id);
-        //2.判断redis中商户是否存在
-        if(StrUtil.isNotBlank(shopJson)){
-            //3.存在，直接返回（有值的情况）
-            return JSONUtil.toBean(shopJson, Shop.class);//string转成对象;
-        }
-        //判断命中的是否是空值(空字符串)
-        if(shopJson!=null){
-            return null;
-        }
-        //4.实现缓存重建
-        //4.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY+id;
-        Shop shop = null;
-        try {
-            boolean isLock =tryLock(lockKey);
-            //4.2 判断是否获取成功
-            if(!isLock){
-                //4.3 失败，则休眠重试
-                    Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-            //4.4 成功，根据id查询数据库
-            shop = getById(id);
-            //5.不存在，返回错误
-            if(shop==null){
-                //将空值写入redis（避免缓存穿透，给数据库带来压力）
-                stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,"", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            //6.存在，保存商户信息到redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);//对象转成string
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally{
-            //7.释放互斥锁
-            unLock(lockKey);
-        }
-        //8.返回
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
 
 
 
-    //尝试写入逻辑过期时间
-    private void saveShop2Redis(Long id,Long expireSeconds){
+    //尝试写入逻辑过期时间（也用于秒杀开始前预热店铺缓存）
+    @Override
+    public void saveShop2Redis(Long id,Long expireSeconds){
         //1.查询店铺数据
         Shop shop = getById(id);
-        //2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        //3.写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,JSONUtil.toJsonStr(redisData));
+        //2.封装逻辑过期时间并写入redis（同时清除本节点的本地缓存）
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
-    // 逻辑过期
-    //创建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 逻辑过期（过期后由CacheClient的重建线程池异步重建）
     public Shop queryWithLogicalExpire (Long id){
-        //1.从redis中查询商户信息
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY+id);
-        //2.判断redis中商户是否存在
-        if(StrUtil.isBlank(shopJson)){
-            //3.存在，直接返回（有值的情况）
-            return null;
-        }
-        //4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);//强转后转成对象
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //5.1未过期，直接返回店铺信息
-            return shop;
-        }
-        //5.2已过期，需要缓存重建
-        //6.缓存重建
-        //6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY+id;
-        boolean isLock = tryLock(lockKey);
-        //6.2判断是否获取锁成功
-        if(isLock){
-            //6.3成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try{
-                    //重建缓存
-                    this.saveShop2Redis(id,20L);
-                }catch (Exception e){
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁
-                    unLock(lockKey);
-                }
-            });
-        }
-        //6.4返回过期的商铺信息
-        return shop;
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+    }
+
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.同一事务写入outbox，提交后加入布隆过滤器（通知所有节点），之后才能查到这个店铺
+        Long id = shop.getId();
+        outboxService.record(OUTBOX_SHOP, id);
+        // 3.提交后先加入本节点的布隆过滤器：拿到id马上查询时不会因为outbox还没处理而返回"店铺不存在"
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                bloomFilters.addLocal(CACHE_SHOP_KEY, id);
+            }
+        });
+        return Result.ok(id);
     }
 
     @Override
+    @Transactional
     public Result update(Shop shop) {
         Long id = shop.getId();
          if(id==null){
               return Result.fail("店铺id不能为空");
          }
-        //1.更新数据库(先更新再删除保持一致性)
+        //1.更新数据库(先更新再删除保持一致性)；更新时间由数据库生成，不用客户端传来的值
+        shop.setCreateTime(null);
+        shop.setUpdateTime(null);
         updateById(shop);
-        //2.删缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+id);
-        return null;
+        //2.同一事务写入outbox，提交后由relay刷新缓存（失败重试、延迟双删）
+        outboxService.record(OUTBOX_SHOP, id);
+        return Result.ok();
+    }
+
+    @PostConstruct
+    private void init() {
+        snapshots = CacheUtil.newLRUCache(snapshotCapacity);
+        outboxRelay.register(OUTBOX_SHOP, this::onShopChanged);
+    }
+
+    /**
+     * outbox中店铺变更的处理（需要幂等：失败会重试，成功后延迟再执行一次）
+     */
+    private void onShopChanged(Long id) {
+        Shop shop = getById(id);
+        // 0.本节点的详情响应快照（其它节点的快照随本地缓存的失效通知失效）
+        snapshots.remove(id);
+        // 1.GEO索引：在刷新缓存之前处理，缓存中还是修改前的店铺，据此得到原来的类型（失败重试时缓存也还没变）
+        Shop previous = cacheClient.peekLogical(CACHE_SHOP_KEY + id, Shop.class);
+        Long typeId = shop == null ? null : shop.getTypeId();
+        if (previous != null) {
+            // 1.1.类型变了（或店铺已删除），只从原来的类型中移除
+            if (previous.getTypeId() != null && !previous.getTypeId().equals(typeId)) {
+                stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + previous.getTypeId(), id.toString());
+            }
+        } else {
+            // 1.2.没有缓存（例如新增的店铺），不知道原来的类型：按内存中的类型快照从其它类型中移除（不查库，一次往返）
+            List<ShopType> types = shopTypeService.querySnapshot().getTypes();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ShopType type : types) {
+                    if (!type.getId().equals(typeId)) {
+                        conn.geoRemove(SHOP_GEO_KEY + type.getId(), id.toString());
+                    }
+                }
+                return null;
+            });
+        }
+        // 1.3.当前类型已经加载过才加入
+        if (shop != null && shop.getX() != null && shop.getY() != null
+                && BooleanUtil.isTrue(stringRedisTemplate.hasKey(SHOP_GEO_KEY + typeId))) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, new Point(shop.getX(), shop.getY()), id.toString());
+        }
+        // 2.店铺缓存按逻辑过期读取，key不能删除：直接写入最新数据，并通知所有节点删除本地缓存
+        cacheClient.refreshWithLogicalExpire(CACHE_SHOP_KEY + id, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
+            return;
+        }
+        // 3.布隆过滤器（新增的店铺）
+        bloomFilters.add(CACHE_SHOP_KEY, id);
     }
 }
@@ -1,20 +1,153 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheOutboxRelay;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 类型列表几乎不变，整体放在内存快照中：启动时加载，Redis中的版本号变化时（pub/sub通知，定时核对兜底）重新加载
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
-public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService, MessageListener {
+    //outbox中类型变更的数据类型
+    private static final String OUTBOX_SHOP_TYPE = "shopType";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private ICacheOutboxService outboxService;
+    @Resource
+    private CacheOutboxRelay outboxRelay;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_SHOP_TYPE_CHANNEL));
+        outboxRelay.register(OUTBOX_SHOP_TYPE, id -> changed());
+        try {
+            checkVersion();
+        } catch (Exception e) {
+            // 启动时加载失败，第一次请求时再加载
+            log.error("店铺类型快照加载失败", e);
+        }
+    }
+
+    @Override
+    public ShopTypeSnapshot querySnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            checkVersion();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    @Override
+    @Transactional
+    public Result saveType(ShopType shopType) {
+        // 1.写入数据库
+        save(shopType);
+        // 2.同一事务写入outbox，提交后由relay递增版本号、通知所有节点重新加载快照
+        outboxService.record(OUTBOX_SHOP_TYPE, shopType.getId());
+        return Result.ok(shopType.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result updateType(ShopType shopType) {
+        Long id = shopType.getId();
+        if (id == null) {
+            return Result.fail("类型id不能为空");
+        }
+        // 1.更新数据库；时间由数据库生成，不用客户端传来的值
+        shopType.setCreateTime(null);
+        shopType.setUpdateTime(null);
+        updateById(shopType);
+        // 2.同一事务写入outbox，提交后由relay递增版本号、通知所有节点重新加载快照
+        outboxService.record(OUTBOX_SHOP_TYPE, id);
+        return Result.ok();
+    }
+
+    /**
+     * outbox中类型变更的处理：版本号加一并通知所有节点重新加载快照（重试、延迟再执行只会多加载一次）
+     */
+    private void changed() {
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(CACHE_SHOP_TYPE_CHANNEL, String.valueOf(version));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        checkVersion();
+    }
+
+    /**
+     * 核对版本号，变化了就重新加载（定时执行，防止错过通知）
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.version-check-ms:30000}")
+    public void checkVersion() {
+        // 先读版本号再查库：查库期间又有修改时，快照的版本号是旧的，下次核对会再加载
+        String value = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        long version = value == null ? 0 : Long.parseLong(value);
+        ShopTypeSnapshot current = snapshot;
+        if (current == null || current.getVersion() != version) {
+            reload(version);
+        }
+    }
 
+    private synchronized void reload(long version) {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return;
+        }
+        // 1.查库
+        List<ShopType> types = query().orderByAsc("sort").list();
+        // 2.提前序列化好响应体，ETag为响应体的哈希（所有节点数据相同则ETag相同）
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        // 3.整体替换
+        snapshot = new ShopTypeSnapshot(version, types, body, etag);
+        log.info("店铺类型快照已加载，版本{}，{}个类型", version, types.size());
+    }
 }
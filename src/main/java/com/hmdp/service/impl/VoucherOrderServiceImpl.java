@@ -1,30 +1,69 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.AsyncRedisScripts;
+import com.hmdp.utils.OrderRingBuffer;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillAdmissionGate;
+import com.hmdp.utils.SeckillBuckets;
+import com.hmdp.utils.SeckillOrderNotifier;
+import com.hmdp.utils.SeckillStockSyncer;
 import com.hmdp.utils.UserHolder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -45,100 +84,748 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWorker redisIdWorker;
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillAdmissionGate admissionGate;
+    @Resource
+    private SeckillStockSyncer stockSyncer;
+    @Resource
+    private SeckillOrderNotifier orderNotifier;
+    @Resource
+    private AsyncRedisScripts asyncRedisScripts;
+    @Resource
+    private MeterRegistry meterRegistry;
+    //处理异步接口回调的应用线程池（Spring Boot自动配置，见spring.task.execution）
+    @Resource
+    private Executor applicationTaskExecutor;
+    //事务代理对象（异步线程中拿不到AopContext，启动时处理pending-list也需要它）
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
     //导入秒杀脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    //订单状态脚本
+    private static final DefaultRedisScript<Long> SECKILL_STATUS_SCRIPT;
+    //消费者组创建脚本、pending-list认领脚本（返回认领数量和转入死信队列的订单id、用户id）
+    private static final DefaultRedisScript<Long> STREAM_GROUP_SCRIPT;
+    private static final DefaultRedisScript<List> STREAM_CLAIM_SCRIPT;
+    //死信订单归还库存脚本
+    private static final DefaultRedisScript<Long> SECKILL_ROLLBACK_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_STATUS_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_STATUS_SCRIPT.setLocation(new ClassPathResource("seckill_status.lua"));
+        SECKILL_STATUS_SCRIPT.setResultType(Long.class);
+        STREAM_GROUP_SCRIPT = new DefaultRedisScript<>();
+        STREAM_GROUP_SCRIPT.setLocation(new ClassPathResource("stream_group.lua"));
+        STREAM_GROUP_SCRIPT.setResultType(Long.class);
+        STREAM_CLAIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_CLAIM_SCRIPT.setLocation(new ClassPathResource("stream_claim.lua"));
+        STREAM_CLAIM_SCRIPT.setResultType(List.class);
+        SECKILL_ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        SECKILL_ROLLBACK_SCRIPT.setResultType(Long.class);
     }
-    //创建阻塞队列
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024*1024);
-    //创建线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //缓冲空/满时的等待间隔
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @Value("${spring.application.name}")
+    private String applicationName;
+    @Value("${server.port}")
+    private int serverPort;
+    //消息空闲多久（毫秒）视为消费者已宕机，可被其它消费者认领
+    @Value("${hmdp.seckill.stream.claim-idle-ms:60000}")
+    private long claimIdleMillis;
+    //多久（毫秒）扫描一次pending-list
+    @Value("${hmdp.seckill.stream.claim-interval-ms:30000}")
+    private long claimIntervalMillis;
+    //多久（毫秒）刷新一次订单Stream分片
+    @Value("${hmdp.seckill.stream.refresh-interval-ms:5000}")
+    private long refreshIntervalMillis;
+    //秒杀结束后多久（小时）内仍扫描它的分片，认领宕机消费者遗留的消息
+    @Value("${hmdp.seckill.stream.retain-hours:24}")
+    private long retainHours;
+    //所有分片都没有新消息时，等待多久（毫秒）再读
+    @Value("${hmdp.seckill.stream.poll-idle-ms:20}")
+    private long pollIdleMillis;
+    //单条消息最多投递次数，超过转入死信队列
+    @Value("${hmdp.seckill.stream.max-deliveries:5}")
+    private int maxDeliveries;
+    //每批最多处理的订单数、攒批最长等待时间（毫秒）
+    @Value("${hmdp.seckill.order.batch-size:200}")
+    private int batchSize;
+    @Value("${hmdp.seckill.order.batch-wait-ms:50}")
+    private long batchWaitMillis;
+    //下单通道数（按userId哈希分区，每个通道一个写入线程）、每个通道的环形缓冲容量
+    @Value("${hmdp.seckill.order.lanes:4}")
+    private int laneCount;
+    @Value("${hmdp.seckill.order.buffer-capacity:16384}")
+    private int bufferCapacity;
+    //允许的最大积压时间（毫秒），超过则拒绝新的秒杀请求
+    @Value("${hmdp.seckill.order.max-lag-ms:10000}")
+    private long maxLagMillis;
+    //所有节点共享的订单Stream：允许的最多待确认消息数、多久（毫秒）检查一次积压
+    @Value("${hmdp.seckill.stream.max-pending:100000}")
+    private long maxPending;
+    @Value("${hmdp.seckill.stream.backlog-check-ms:1000}")
+    private long backlogCheckMillis;
+    //订单Stream的积压（读取线程定期刷新）：所有分片的待确认消息数、最早一条未投递消息已等待的毫秒数
+    private volatile long streamPending;
+    private volatile long streamLagMillis;
+    //订单Stream分片，下标即环形缓冲中保存的分片序号（只追加）；按key查找只由读取线程使用
+    private final List<OrderShard> shards = new CopyOnWriteArrayList<>();
+    private final Map<String, OrderShard> shardsByKey = new HashMap<>();
+    //每个通道的订单环形缓冲，已取出正在落库还未ACK的批次数
+    private OrderRingBuffer[] lanes;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    //线程池：一个读取线程 + 每个通道一个写入线程
+    private ExecutorService seckillOrderExecutor;
+    //当前节点的消费者名称（同一节点重启后名称不变，可以接着处理自己的pending-list）
+    private String consumerName;
+    private volatile boolean running = true;
 
     @PostConstruct//类初始化完后执行
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        consumerName = applicationName + "-" + localHostName() + "-" + serverPort;
+        //旧版本的订单队列stream.orders作为第0个分片，处理完升级前遗留的消息
+        addShard(SECKILL_ORDER_STREAM, 0);
+        //预分配每个通道的订单环形缓冲，导出积压、延迟指标
+        lanes = new OrderRingBuffer[laneCount];
+        seckillOrderExecutor = Executors.newFixedThreadPool(laneCount + 1, new NamedThreadFactory("seckill-order-", false));
+        Gauge.builder("seckill.order.lanes", lanes, l -> l.length).register(meterRegistry);
+        for (int i = 0; i < laneCount; i++) {
+            OrderRingBuffer lane = new OrderRingBuffer(bufferCapacity);
+            lanes[i] = lane;
+            String tag = String.valueOf(i);
+            Gauge.builder("seckill.order.buffer.depth", lane, OrderRingBuffer::size).tag("lane", tag).register(meterRegistry);
+            Gauge.builder("seckill.order.buffer.capacity", lane, OrderRingBuffer::capacity).tag("lane", tag).register(meterRegistry);
+            Gauge.builder("seckill.order.lag", lane, VoucherOrderServiceImpl::lagMillis)
+                    .tag("lane", tag).baseUnit("milliseconds").register(meterRegistry);
+            seckillOrderExecutor.submit(new VoucherOrderHandler(lane));
+        }
+        Gauge.builder("seckill.order.stream.pending", this, o -> o.streamPending).register(meterRegistry);
+        Gauge.builder("seckill.order.stream.lag", this, o -> o.streamLagMillis)
+                .baseUnit("milliseconds").register(meterRegistry);
+        seckillOrderExecutor.submit(new OrderStreamReader());
     }
 
-    //创建子线程
-    private class VoucherOrderHandler implements Runnable {
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    //读取线程：基于Stream消费者组依次读取每个分片的订单，放入环形缓冲；缓冲满时暂停读取，订单留在Stream中不会丢
+    private class OrderStreamReader implements Runnable {
+        private long lastClaimTime = System.currentTimeMillis();
+        private long lastRefreshTime;
+        private long lastBacklogCheckTime;
+        //轮流从不同的分片开始读取，避免前面的分片一直占满缓冲
+        private int cursor;
+
         @Override
         public void run() {
-            while (true){
+            //0.启动时加载分片，先处理上次宕机前已读取但未确认的消息
+            refreshIfDue();
+            readPendingLists();
+            while (running){
                 try{
-                    //1.获取队列中的订单信息
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    //2.创建订单
-                    handleVoucherOrder(voucherOrder);
+                    //1.定期刷新分片、认领其它宕机消费者遗留的消息、检查订单Stream的积压
+                    refreshIfDue();
+                    recoverIfDue();
+                    checkBacklogIfDue();
+                    //2.背压：任一通道没有空位时不读取
+                    int room = Math.min(batchSize, minRemainingCapacity());
+                    if (room == 0) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+                    //3.依次读取每个分片（分片可能在不同slot，不能在一条命令里读多个）
+                    int read = 0;
+                    int size = shards.size();
+                    for (int i = 0; i < size && room > 0; i++) {
+                        OrderShard shard = shards.get((cursor + i) % size);
+                        if (shard.retired || shard.drained) {
+                            continue;
+                        }
+                        //3.1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders{voucherId:bucket} >
+                        List<MapRecord<String, Object, Object>> list = readGroup(
+                                shard.key, ReadOffset.lastConsumed(), StreamReadOptions.empty().count(room));
+                        //3.2.没有新消息：秒杀已经结束的分片之后不会再有新消息
+                        if (list == null || list.isEmpty()) {
+                            shard.drained = System.currentTimeMillis() > shard.endMillis + refreshIntervalMillis;
+                            continue;
+                        }
+                        //3.3.放入环形缓冲，由写入线程攒批落库
+                        publish(shard, list);
+                        read += list.size();
+                        room -= list.size();
+                    }
+                    cursor = size == 0 ? 0 : (cursor + 1) % size;
+                    //4.所有分片都没有新消息，稍等再读
+                    if (read == 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pollIdleMillis));
+                    }
                 }catch (Exception e){
-                    log.error("订单处理异常",e);
+                    log.error("读取订单消息异常",e);
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
                 }
             }
+        }
 
+        /**
+         * 刷新分片：进行中和retain-hours内结束的秒杀券，每个桶一个分片
+         */
+        private void refreshIfDue() {
+            long now = System.currentTimeMillis();
+            if (now - lastRefreshTime < refreshIntervalMillis) {
+                return;
+            }
+            lastRefreshTime = now;
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id", "end_time")
+                    .gt("end_time", LocalDateTime.now().minusHours(retainHours))
+                    .list();
+            Set<String> current = new HashSet<>();
+            //旧版本的stream.orders一直保留，读完遗留的消息后只做认领扫描
+            current.add(SECKILL_ORDER_STREAM);
+            for (SeckillVoucher voucher : vouchers) {
+                String value = stringRedisTemplate.opsForValue().get(SECKILL_BUCKETS_KEY + voucher.getVoucherId());
+                int buckets = value == null ? 1 : Integer.parseInt(value);
+                long endMillis = voucher.getEndTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                for (int i = 0; i < buckets; i++) {
+                    String key = SeckillBuckets.streamKey(voucher.getVoucherId(), i, buckets);
+                    current.add(key);
+                    OrderShard shard = shardsByKey.get(key);
+                    if (shard == null) {
+                        addShard(key, endMillis);
+                    } else if (shard.endMillis != endMillis) {
+                        //结束时间改了（例如延长），重新开始读取
+                        shard.endMillis = endMillis;
+                        shard.drained = false;
+                    }
+                }
+            }
+            for (OrderShard shard : shards) {
+                shard.retired = !current.contains(shard.key);
+            }
         }
 
-        private void handleVoucherOrder(VoucherOrder voucherOrder) {
-            //获取用户
-            Long userId = voucherOrder.getUserId();
-            //创建锁对象（实现多进程之间加锁）
-            //Redission分布式锁创建锁对象
-            RLock lock = redissonClient.getLock("lock:order:"+userId);
-            //Redission获取锁对象
-            boolean isLick = lock.tryLock();
-            //判断是否获取锁成功
-            if(!isLick){
-                //获取锁失败返回错误信息
-                log.error("不允许重复下单");
+        private void recoverIfDue() {
+            long now = System.currentTimeMillis();
+            if (now - lastClaimTime < claimIntervalMillis) {
+                return;
+            }
+            //缓冲里还有未确认的订单时先不扫描，避免同一条消息被重复放入缓冲
+            if (bufferedOrders() > 0 || inFlight.get() > 0) {
                 return;
             }
-            try{
+            lastClaimTime = now;
+            Set<Long> restocked = new HashSet<>();
+            for (OrderShard shard : shards) {
+                if (shard.retired) {
+                    continue;
+                }
+                //1.认领空闲超时的消息，多次失败的消息转入分片的死信队列
+                List result = stringRedisTemplate.execute(
+                        STREAM_CLAIM_SCRIPT,
+                        Arrays.asList(shard.key, SeckillBuckets.deadLetterKey(shard.key)),
+                        SECKILL_ORDER_GROUP, consumerName, String.valueOf(claimIdleMillis), "100", String.valueOf(maxDeliveries)
+                );
+                if (result == null || result.isEmpty()) {
+                    continue;
+                }
+                long claimed = Long.parseLong(result.get(0).toString());
+                if (claimed > 0) {
+                    log.info("认领了{}条其它消费者未确认的订单消息：{}", claimed, shard.key);
+                }
+                //1.1.转入死信队列的订单：归还Redis库存，标记为失败并通知等待结果的客户端
+                for (int i = 1; i + 1 < result.size(); i += 2) {
+                    String orderId = result.get(i).toString();
+                    if (!orderId.isEmpty()) {
+                        rollbackDeadOrder(shard.key, Long.valueOf(orderId), result.get(i + 1).toString(), restocked);
+                    }
+                }
+            }
+            //1.2.归还了库存的券，清除各节点的售罄标记，名额可以再被买到
+            for (Long voucherId : restocked) {
+                admissionGate.resetAll(voucherId);
+            }
+            //2.认领到的消息和自己之前失败的消息都在自己的pending-list里
+            readPendingLists();
+        }
 
-                proxy.createVoucherOrder(voucherOrder);
-            }finally {
-                //释放锁
-                lock.unlock();
+        /**
+         * 订单Stream的积压（所有节点共享）：消费者组的待确认消息数，以及最早一条还没有投递给任何消费者的消息已等待多久
+         */
+        private void checkBacklogIfDue() {
+            long now = System.currentTimeMillis();
+            if (now - lastBacklogCheckTime < backlogCheckMillis) {
+                return;
+            }
+            lastBacklogCheckTime = now;
+            long pending = 0;
+            long lag = 0;
+            for (OrderShard shard : shards) {
+                if (shard.retired) {
+                    continue;
+                }
+                //1.XINFO GROUPS stream.orders{voucherId:bucket}：待确认数量、最后投递的消息id
+                String lastDelivered = null;
+                StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(shard.key);
+                for (int i = 0; i < groups.size(); i++) {
+                    StreamInfo.XInfoGroup group = groups.get(i);
+                    if (SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                        pending += group.pendingCount();
+                        lastDelivered = group.lastDeliveredId();
+                    }
+                }
+                if (lastDelivered == null || shard.drained) {
+                    continue;
+                }
+                //2.XRANGE stream.orders{voucherId:bucket} lastDelivered + COUNT 2：之后的第一条就是最早未投递的消息
+                List<MapRecord<String, Object, Object>> next = stringRedisTemplate.opsForStream().range(shard.key,
+                        Range.rightUnbounded(Range.Bound.inclusive(lastDelivered)), RedisZSetCommands.Limit.limit().count(2));
+                for (MapRecord<String, Object, Object> record : next) {
+                    if (!record.getId().getValue().equals(lastDelivered)) {
+                        lag = Math.max(lag, now - record.getId().getTimestamp());
+                        break;
+                    }
+                }
+            }
+            streamPending = pending;
+            streamLagMillis = lag;
+        }
+
+        private void readPendingLists() {
+            for (OrderShard shard : shards) {
+                if (!shard.retired) {
+                    readPendingList(shard);
+                }
+            }
+        }
+
+        private void readPendingList(OrderShard shard) {
+            //从pending-list头部开始，逐页向后扫描
+            String offset = "0";
+            while (running) {
+                try {
+                    //1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders{voucherId:bucket} offset
+                    List<MapRecord<String, Object, Object>> list = readGroup(
+                            shard.key, ReadOffset.from(offset), StreamReadOptions.empty().count(batchSize));
+                    //2.判断消息获取是否成功
+                    if (list == null || list.isEmpty()) {
+                        //2.1.pending-list没有异常消息，结束循环
+                        break;
+                    }
+                    //3.放入环形缓冲
+                    publish(shard, list);
+                    offset = list.get(list.size() - 1).getId().getValue();
+                } catch (Exception e) {
+                    //4.失败的留在pending-list，等下一轮recover重试（超过最大投递次数会进死信队列）
+                    log.error("处理pending-list订单异常：{}", shard.key, e);
+                    break;
+                }
+            }
+        }
+
+        private void publish(OrderShard shard, List<MapRecord<String, Object, Object>> records) {
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<Object, Object> value = record.getValue();
+                RecordId id = record.getId();
+                long orderId = Long.parseLong(value.get("id").toString());
+                long userId = Long.parseLong(value.get("userId").toString());
+                long voucherId = Long.parseLong(value.get("voucherId").toString());
+                //按userId路由到通道，同一用户的订单始终由同一个线程顺序处理；缓冲满了就等写入线程腾出空位
+                OrderRingBuffer lane = laneOf(userId);
+                while (!lane.offer(orderId, userId, voucherId, shard.index, id.getTimestamp(), id.getSequence())) {
+                    if (!running) {
+                        return;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
             }
         }
     }
-    private IVoucherOrderService proxy;
+
+    /**
+     * 从一个分片读取消息 XREADGROUP GROUP g1 c1 COUNT n STREAMS key offset
+     */
+    // StreamOperations.read的StreamOffset<K>...是泛型可变参数，调用处会生成泛型数组；只传一个元素，没有堆污染
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> readGroup(String key, ReadOffset offset, StreamReadOptions options) {
+        return stringRedisTemplate.opsForStream().read(
+                Consumer.from(SECKILL_ORDER_GROUP, consumerName), options, StreamOffset.create(key, offset));
+    }
+
+    /**
+     * 新增一个分片并创建消费者组（启动时和读取线程中调用）
+     */
+    private void addShard(String key, long endMillis) {
+        //创建消费者组（队列不存在时一并创建，多个实例共用一个组，分摊订单）
+        stringRedisTemplate.execute(STREAM_GROUP_SCRIPT, Collections.singletonList(key), SECKILL_ORDER_GROUP);
+        OrderShard shard = new OrderShard(shards.size(), key, endMillis);
+        shardsByKey.put(key, shard);
+        shards.add(shard);
+    }
+
+    /**
+     * 订单Stream分片：每张秒杀券的每个桶一个，与桶的库存key在同一个slot
+     */
+    private static class OrderShard {
+        //在shards中的下标，环形缓冲中保存这个下标
+        private final int index;
+        private final String key;
+        //所属秒杀券的结束时间（毫秒）
+        private volatile long endMillis;
+        //秒杀已结束且新消息都已读完，不再读取新消息（pending-list仍会扫描）
+        private volatile boolean drained;
+        //秒杀结束超过retain-hours，不再读取也不再扫描
+        private volatile boolean retired;
+
+        private OrderShard(int index, String key, long endMillis) {
+            this.index = index;
+            this.key = key;
+            this.endMillis = endMillis;
+        }
+    }
+
+    //写入线程：每个通道一个，从通道的环形缓冲攒批（最多batchSize条或等待batchWaitMillis毫秒），批量落库后ACK
+    private class VoucherOrderHandler implements Runnable {
+        private final OrderRingBuffer orderBuffer;
+        private final OrderRingBuffer.Batch batch = new OrderRingBuffer.Batch(batchSize);
+
+        private VoucherOrderHandler(OrderRingBuffer orderBuffer) {
+            this.orderBuffer = orderBuffer;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    //1.等待攒够一批或者超时
+                    if (!awaitBatch()) {
+                        continue;
+                    }
+                    inFlight.incrementAndGet();
+                    try {
+                        //2.取出订单，批量创建并ACK确认
+                        orderBuffer.drainTo(batch);
+                        handleVoucherOrders(batch);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                } catch (Exception e) {
+                    log.error("订单处理异常", e);
+                }
+            }
+        }
+
+        private boolean awaitBatch() {
+            long deadline = 0;
+            while (running) {
+                int size = orderBuffer.size();
+                if (size >= batchSize) {
+                    return true;
+                }
+                if (size > 0) {
+                    if (deadline == 0) {
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWaitMillis);
+                    } else if (System.nanoTime() >= deadline) {
+                        return true;
+                    }
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            return false;
+        }
+
+        private void handleVoucherOrders(OrderRingBuffer.Batch batch) {
+            int n = batch.size();
+            List<VoucherOrder> orders = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                VoucherOrder order = new VoucherOrder();
+                order.setId(batch.orderId(i));
+                order.setUserId(batch.userId(i));
+                order.setVoucherId(batch.voucherId(i));
+                orders.add(order);
+            }
+            try {
+                //1.一个事务内多行插入订单、按优惠券聚合扣减库存
+                List<Long> rejected = proxy.createVoucherOrders(orders);
+                //2.按分片整批ACK确认 XACK stream.orders{voucherId:bucket} g1 id1 id2 ...
+                Map<Integer, List<RecordId>> idsByShard = new HashMap<>();
+                for (int i = 0; i < n; i++) {
+                    idsByShard.computeIfAbsent(batch.shard(i), k -> new ArrayList<>())
+                            .add(RecordId.of(batch.recordMillis(i), batch.recordSequence(i)));
+                }
+                for (Map.Entry<Integer, List<RecordId>> entry : idsByShard.entrySet()) {
+                    stringRedisTemplate.opsForStream().acknowledge(shards.get(entry.getKey()).key, SECKILL_ORDER_GROUP,
+                            entry.getValue().toArray(new RecordId[0]));
+                }
+                //2.1.更新订单状态并通知等待结果的客户端
+                orderNotifier.publish(orders, rejected);
+            } catch (Exception e) {
+                //3.整批失败（例如某张券库存不足）则逐条重试，互不影响
+                log.warn("批量创建{}条订单失败，逐条重试：{}", n, e.getMessage());
+                for (int i = 0; i < n; i++) {
+                    try {
+                        boolean created = proxy.createVoucherOrder(orders.get(i));
+                        stringRedisTemplate.opsForStream().acknowledge(shards.get(batch.shard(i)).key, SECKILL_ORDER_GROUP,
+                                RecordId.of(batch.recordMillis(i), batch.recordSequence(i)));
+                        orderNotifier.publish(orders.get(i).getId(),
+                                created ? SeckillOrderNotifier.CREATED : SeckillOrderNotifier.FAILED);
+                    } catch (Exception ex) {
+                        //3.1.单条失败留在pending-list，等待重试
+                        log.error("订单{}处理异常", orders.get(i).getId(), ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 多次落库失败、已转入死信队列的订单
+     * <p>
+     * 数据库中没有这个订单时，把lua脚本在Redis中扣减的库存和写入的下单记录还回去：否则这个名额永远卖不出去，
+     * 用户也无法重新下单。死信队列保留原消息用于排查。
+     */
+    private void rollbackDeadOrder(String streamKey, Long orderId, String userId, Set<Long> restocked) {
+        // 1.订单其实已经落库（例如提交成功但ACK失败之后一直异常），不归还
+        if (getById(orderId) != null) {
+            log.warn("订单{}已转入死信队列，但数据库中已存在，按已创建处理", orderId);
+            orderNotifier.publish(orderId, SeckillOrderNotifier.CREATED);
+            return;
+        }
+        log.error("订单{}多次处理失败，已转入死信队列", orderId);
+        // 2.同一个桶的库存key和下单用户key（与Stream分片同一个hash tag）：SREM成功才INCRBY，重复执行不会多加库存
+        String tag = SeckillBuckets.tagOf(streamKey);
+        if (tag != null && !userId.isEmpty()) {
+            Long restored = stringRedisTemplate.execute(SECKILL_ROLLBACK_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + tag, SECKILL_ORDER_KEY + tag), userId);
+            if (restored != null && restored == 1) {
+                restocked.add(SeckillBuckets.voucherIdOf(tag));
+            }
+        }
+        orderNotifier.publish(orderId, SeckillOrderNotifier.FAILED);
+    }
+
+    /**
+     * 用户所属的下单通道
+     */
+    private OrderRingBuffer laneOf(long userId) {
+        return lanes[(int) (((userId * 0x9E3779B97F4A7C15L) >>> 32) % lanes.length)];
+    }
+
+    private int minRemainingCapacity() {
+        int min = Integer.MAX_VALUE;
+        for (OrderRingBuffer lane : lanes) {
+            min = Math.min(min, lane.remainingCapacity());
+        }
+        return min;
+    }
+
+    private int bufferedOrders() {
+        int total = 0;
+        for (OrderRingBuffer lane : lanes) {
+            total += lane.size();
+        }
+        return total;
+    }
+
+    /**
+     * 通道中最早的订单在缓冲中已等待的毫秒数
+     * <p>
+     * 按入队时间而不是Stream消息id计算：宕机恢复后XCLAIM重投的消息id可能是几分钟前的，按消息id算会误判过载
+     */
+    private static long lagMillis(OrderRingBuffer lane) {
+        long oldest = lane.oldestEnqueueMillis();
+        return oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * 下单是否过载
+     * <p>
+     * 1.本节点：用户所在的下单通道缓冲已满或积压过久<br>
+     * 2.所有节点：共享的订单Stream待确认消息过多，或者未投递的消息等待过久（所有节点的缓冲都满了、落库都慢）。
+     * 由读取线程每backlog-check-ms刷新一次，其它节点缓冲空闲时它们会继续读取，Stream不会积压
+     */
+    private boolean isOverloaded(Long userId) {
+        OrderRingBuffer lane = laneOf(userId);
+        return lane.remainingCapacity() == 0 || lagMillis(lane) > maxLagMillis
+                || streamPending > maxPending || streamLagMillis > maxLagMillis;
+    }
+
     @Override
     public Result seckillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
+        // 0.本地准入：未开始/已结束/已售罄/刚抢到过的请求直接拒绝，不访问Redis
+        String reject = admissionGate.check(voucherId, userId);
+        if (reject != null) {
+            return Result.fail(reject);
+        }
+        // 0.1.下单管道过载（缓冲已满或积压过久），直接让用户稍后重试，不预扣Redis库存
+        if (isOverloaded(userId)) {
+            return Result.fail("下单人数过多，请稍后重试");
+        }
         long orderId = redisIdWorker.nextId("order");
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
+        // 1.执行lua脚本（有购买资格时脚本直接把订单写入桶的订单Stream分片）
+        // 1.1.分桶时从用户的主桶开始，桶卖完(返回1)或库存key缺失(返回3)就依次尝试后面的桶
+        int buckets = admissionGate.buckets(voucherId);
+        int home = SeckillBuckets.homeBucket(userId, buckets);
+        int r = 1;
+        boolean notReady = false;
+        for (int i = 0; i < buckets && (r == 1 || r == 3); i++) {
+            int bucket = (home + i) % buckets;
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    seckillKeys(voucherId, bucket, buckets),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            r = result.intValue();
+            notReady |= r == 3;
+        }
+        // 1.1.1.有的桶库存key缺失（等待SeckillPreWarmer补齐），不能认定为售罄
+        if (r == 1 && notReady) {
+            r = 3;
+        }
+        // 1.2.抢到了：记录订单状态为排队中
+        if (r == 0) {
+            try {
+                stringRedisTemplate.execute(SECKILL_STATUS_SCRIPT, Collections.singletonList(SECKILL_STATUS_KEY + orderId),
+                        (Object[]) statusArgs(voucherId, userId));
+            } catch (Exception e) {
+                // 订单已经入队，状态写入失败时查询接口以数据库为准
+                log.warn("订单{}状态写入失败：{}", orderId, e.getMessage());
+            }
+        }
+        return seckillResult(voucherId, r, orderId);
+    }
+
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        // 0.本地准入、过载判断、生成订单id都在请求线程上完成（不访问Redis或只访问本地号段）
+        String reject = admissionGate.check(voucherId, userId);
+        if (reject != null) {
+            return CompletableFuture.completedFuture(Result.fail(reject));
+        }
+        if (isOverloaded(userId)) {
+            return CompletableFuture.completedFuture(Result.fail("下单人数过多，请稍后重试"));
+        }
+        long orderId = redisIdWorker.nextId("order");
+        int buckets = admissionGate.buckets(voucherId);
+        int home = SeckillBuckets.homeBucket(userId, buckets);
+        // 1.异步执行lua脚本，请求线程立即返回；脚本结果切到应用线程池处理（售罄广播是阻塞的Redis调用，不能占用Lettuce的IO线程）
+        return seckillAsync(voucherId, userId, orderId, home, 0, buckets, false)
+                .thenCompose(r -> r != 0 ? CompletableFuture.completedFuture(r) : asyncRedisScripts.execute(
+                        SECKILL_STATUS_SCRIPT, Collections.singletonList(SECKILL_STATUS_KEY + orderId), statusArgs(voucherId, userId))
+                        .handle((v, e) -> {
+                            if (e != null) {
+                                log.warn("订单{}状态写入失败：{}", orderId, e.getMessage());
+                            }
+                            return r;
+                        }))
+                .thenApplyAsync(UserHolder.wrap((Integer r) -> seckillResult(voucherId, r, orderId)), applicationTaskExecutor);
+    }
+
+    /**
+     * 异步依次尝试各个桶：第i个桶卖完(返回1)或库存key缺失(返回3)再尝试下一个
+     * @param notReady 前面是否有桶的库存key缺失，所有桶都没买到时结果为3而不是售罄
+     */
+    private CompletableFuture<Integer> seckillAsync(Long voucherId, Long userId, long orderId,
+                                                    int home, int i, int buckets, boolean notReady) {
+        int bucket = (home + i) % buckets;
+        return asyncRedisScripts.execute(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
+                seckillKeys(voucherId, bucket, buckets),
                 voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
-        int r = result.intValue();
+        ).thenCompose(result -> {
+            boolean missing = notReady || result == 3;
+            if ((result == 1 || result == 3) && i + 1 < buckets) {
+                return seckillAsync(voucherId, userId, orderId, home, i + 1, buckets, missing);
+            }
+            return CompletableFuture.completedFuture(result == 1 && missing ? 3 : result.intValue());
+        });
+    }
+
+    /**
+     * 秒杀脚本的key：同一个桶的库存key、下单用户key、订单Stream分片，hash tag相同
+     */
+    private static List<String> seckillKeys(Long voucherId, int bucket, int buckets) {
+        return Arrays.asList(
+                SeckillBuckets.stockKey(voucherId, bucket, buckets),
+                SeckillBuckets.orderKey(voucherId, bucket, buckets),
+                SeckillBuckets.streamKey(voucherId, bucket, buckets));
+    }
+
+    private static String[] statusArgs(Long voucherId, Long userId) {
+        return new String[]{userId.toString(), voucherId.toString(), String.valueOf(TimeUnit.MINUTES.toSeconds(SECKILL_STATUS_TTL))};
+    }
+
+    /**
+     * 处理lua脚本的结果
+     */
+    private Result seckillResult(Long voucherId, int r, long orderId) {
+        Long userId = UserHolder.getUser().getId();
         // 2.判断结果是否为0
         if (r != 0) {
-            // 2.1.不为0 ，代表没有购买资格
+            // 2.1.不为0 ，代表没有购买资格，记录到本地准入，后续请求不再访问Redis
+            if (r == 1) {
+                admissionGate.markSoldOut(voucherId);
+            } else if (r == 2) {
+                admissionGate.markBought(voucherId, userId);
+            } else {
+                // 3：库存key缺失，等待预热补齐，不记录
+                log.debug("秒杀券{}的库存key缺失，等待预热补齐", voucherId);
+                return Result.fail("秒杀尚未就绪，请稍后重试");
+            }
             return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
         }
-        //2.2 为0，有购买资格，把下单信息保存到阻塞队列（异步下单,开启独立线程从队列里拿去下单(把耗时较久的下单与数据库交互部分异步完成，主线程只判断资格)）
-        //2.3 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        //2.4 订单id
-        orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        //2.5 用户id
-        voucherOrder.setUserId(userId);
-        //2.6 代金券id
-        voucherOrder.setVoucherId(voucherId);
-        //2.7 放入阻塞队列
-        orderTasks.add(voucherOrder);
-
-        //3.获取代理对象
-        proxy =(IVoucherOrderService) AopContext.currentProxy();//拿到事务代理对象
-        //4.返回订单id
+        //2.2 为0，有购买资格，订单已由脚本写入Stream消息队列，由消费者组异步下单（进程重启不丢单，多实例分摊）
+        admissionGate.markBought(voucherId, userId);
+        //3.返回订单id（客户端凭订单id查询状态或订阅下单结果）
         return Result.ok(orderId);
     }
 
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        // 1.查询Redis中的订单状态
+        Map<Object, Object> status = orderNotifier.status(orderId);
+        if (!status.isEmpty()) {
+            // 2.只能查看自己的订单
+            if (!userId.toString().equals(status.get("userId"))) {
+                return Result.fail("订单不存在");
+            }
+            return Result.ok(status.get("status"));
+        }
+        // 3.状态已过期，以数据库为准
+        VoucherOrder order = getById(orderId);
+        if (order == null || !userId.equals(order.getUserId())) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(SeckillOrderNotifier.CREATED);
+    }
+
+    @Override
+    public SseEmitter subscribeOrderStatus(Long orderId) {
+        Result status = queryOrderStatus(orderId);
+        if (!Boolean.TRUE.equals(status.getSuccess())) {
+            // 订单不存在时推送失败结果并结束
+            return orderNotifier.subscribe(orderId, SeckillOrderNotifier.FAILED);
+        }
+        return orderNotifier.subscribe(orderId, status.getData().toString());
+    }
+
 
 
     /*@Override
@@ -190,50 +877,91 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     //乐观锁：认为线程安全不一定发生，只是更新数据时判断有无其他线程对数据做了修改（用查询与修改时查询的库存值进行比较可以得出高并发场景下会不会有人同步修改）
 
     @Transactional//事务只是下面
-    public void createVoucherOrder(VoucherOrder vouchOrder){
-        // 5.一人一单
-        //Long userId = UserHolder.getUser().getId();
-        Long userId = vouchOrder.getUserId();
-
-        //synchronized (userId.toString().intern()) {//同一个用户来了才判断线程安全问题（一人一单）没必要整个方法都加锁，优化内存占用，.intern()是在内存池里找一样的就是一个对象（保证id一样就一把一样的锁）
-            // 5.1.查询订单
-            int count = query().eq("user_id", userId).eq("voucher_id", vouchOrder.getVoucherId()).count();
-            // 5.2.判断是否存在
-            if (count > 0) {
-                // 用户已经购买过了
-                //return Result.fail("用户已经购买过一次！");
-                log.error("用户已经购买过一次！");
-                return;
+    public boolean createVoucherOrder(VoucherOrder vouchOrder){
+        // 5.一人一单：插入订单，(user_id, voucher_id)唯一键冲突时忽略（不需要加锁、不需要先查询）
+        int inserted = getBaseMapper().insertIgnore(vouchOrder);
+        if (inserted == 0) {
+            // 同一条消息的重复投递：订单已经创建过了
+            if (getById(vouchOrder.getId()) != null) {
+                return true;
             }
+            // 用户已经购买过了
+            log.error("用户{}已经购买过一次！", vouchOrder.getUserId());
+            return false;
+        }
+
+        // 6.扣减库存（写回模式下以Redis库存为准，提交后累计，由SeckillStockSyncer定时刷回）
+        if (stockSyncer.isWriteBehind()) {
+            stockSyncer.recordAfterCommit(vouchOrder.getVoucherId(), 1);
+            return true;
+        }
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1") // set stock = stock - 1
+                .eq("voucher_id", vouchOrder.getVoucherId())//比较voucher_id与stock是否相等来实现乐观锁
+                .gt("stock", 0) // where id = ? and stock > 0
+                .update();
+        if (!success) {
+            // 扣减失败，回滚刚插入的订单
+            throw new IllegalStateException("优惠券" + vouchOrder.getVoucherId() + "库存不足！");
+        }
+        return true;
+    }
 
-            // 6.扣减库存
+    @Override
+    @Transactional
+    public List<Long> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        List<Long> rejected = new ArrayList<>();
+        // 1.按优惠券分组，按voucher_id顺序扣减库存：各通道的事务以相同顺序锁tb_seckill_voucher的行，不会互相死锁
+        Map<Long, List<VoucherOrder>> ordersByVoucher = new TreeMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            ordersByVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            // 2.多行插入订单，已购买过的用户、重复投递的订单被唯一键忽略
+            int inserted = getBaseMapper().insertIgnoreBatch(entry.getValue());
+            if (inserted < entry.getValue().size()) {
+                log.error("优惠券{}有{}条重复订单被忽略", entry.getKey(), entry.getValue().size() - inserted);
+                rejected.addAll(duplicateOrders(entry.getValue()));
+            }
+            if (inserted == 0) {
+                continue;
+            }
+            if (stockSyncer.isWriteBehind()) {
+                // 写回模式：不锁tb_seckill_voucher热点行，提交后累计扣减
+                stockSyncer.recordAfterCommit(entry.getKey(), inserted);
+                continue;
+            }
+            // 3.按实际插入的数量聚合扣减库存 set stock = stock - n where voucher_id = ? and stock >= n
             boolean success = seckillVoucherService.update()
-                    .setSql("stock = stock - 1") // set stock = stock - 1
-                    .eq("voucher_id", vouchOrder.getVoucherId())//比较voucher_id与stock是否相等来实现乐观锁
-                    .gt("stock", 0) // where id = ? and stock > 0
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", inserted)
                     .update();
             if (!success) {
-                // 扣减失败
-                //return Result.fail("库存不足！");
-                log.error("库存不足！");
-                return;
+                // 库存不足，整批回滚，交给逐条下单处理
+                throw new IllegalStateException("优惠券" + entry.getKey() + "库存不足" + inserted);
             }
+        }
+        return rejected;
+    }
 
-            /*// 7.创建订单
-            VoucherOrder voucherOrder = new VoucherOrder();
-            // 7.1.订单id
-            long orderId = redisIdWorker.nextId("order");
-            voucherOrder.setId(orderId);
-            // 7.2.用户id
-            voucherOrder.setUserId(userId);
-            // 7.3.代金券id
-            voucherOrder.setVoucherId(vouchOrder);
-            save(voucherOrder);
-
-            // 7.返回订单id
-            return Result.ok(orderId);*/
-
-            //7.创建订单（异步下单）
-            save(vouchOrder);
+    /**
+     * 被唯一键忽略的订单中，订单id不存在的是用户重复购买；存在的是重复投递（已创建过）
+     */
+    private List<Long> duplicateOrders(List<VoucherOrder> orders) {
+        List<Long> ids = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            ids.add(order.getId());
+        }
+        Set<Long> existing = new HashSet<>(listObjs(
+                new QueryWrapper<VoucherOrder>().select("id").in("id", ids),
+                id -> Long.valueOf(id.toString())));
+        List<Long> rejected = new ArrayList<>();
+        for (Long id : ids) {
+            if (!existing.contains(id)) {
+                rejected.add(id);
+            }
+        }
+        return rejected;
     }
 }
@@ -7,14 +7,18 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillAdmissionGate;
+import com.hmdp.utils.SeckillBuckets;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKETS_KEY;
 
 /**
  * <p>
@@ -31,6 +35,8 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillAdmissionGate admissionGate;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -52,7 +58,23 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀库存到Redis中（分桶时拆到多个key，各桶的key分散在不同slot）
+        int buckets = voucher.getBuckets() == null ? 1 : Math.max(1, Math.min(voucher.getBuckets(), voucher.getStock()));
+        for (int i = 0; i < buckets; i++) {
+            stringRedisTemplate.opsForValue().set(
+                    SeckillBuckets.stockKey(voucher.getId(), i, buckets),
+                    String.valueOf(SeckillBuckets.bucketStock(voucher.getStock(), i, buckets)));
+        }
+        if (buckets > 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_BUCKETS_KEY + voucher.getId(), String.valueOf(buckets));
+        }
+        // 提交后清除各节点的本地准入状态（提交前可能已缓存了"秒杀券不存在"）
+        Long voucherId = voucher.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                admissionGate.resetAll(voucherId);
+            }
+        });
     }
 }
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+
+/**
+ * 运维接口（例如秒杀库存对账）：必须登录，且用户id在 hmdp.admin.user-ids 中
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Collection<Long> adminUserIds;
+
+    public AdminInterceptor(Collection<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        //1.未登录，返回401
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        //2.不是管理员，返回403
+        if (!adminUserIds.contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
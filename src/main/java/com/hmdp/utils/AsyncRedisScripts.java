@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 通过Lettuce异步API执行lua脚本：先EVALSHA，服务端没有缓存脚本（NOSCRIPT）时再EVAL全文
+ * <p>
+ * 返回的future在Lettuce的IO线程上完成，后续回调里不要执行阻塞操作：需要阻塞或耗CPU的处理用thenApplyAsync切到应用线程池。
+ */
+@Component
+public class AsyncRedisScripts {
+
+    @Resource
+    private RedisClusterAsyncCommands<String, String> asyncRedisCommands;
+
+    public CompletableFuture<Long> execute(DefaultRedisScript<Long> script, List<String> keys, String... args) {
+        RedisClusterAsyncCommands<String, String> commands = asyncRedisCommands;
+        String[] keyArray = keys.toArray(new String[0]);
+        return commands.<Long>evalsha(script.getSha1(), ScriptOutputType.INTEGER, keyArray, args)
+                .toCompletableFuture()
+                .handle((result, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    if (isNoScript(e)) {
+                        return commands.<Long>eval(script.getScriptAsString(), ScriptOutputType.INTEGER, keyArray, args)
+                                .toCompletableFuture();
+                    }
+                    CompletableFuture<Long> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    return failed;
+                })
+                .thenCompose(future -> future);
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null && cause.getMessage().startsWith("NOSCRIPT");
+    }
+}
@@ -0,0 +1,514 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑二进制编码：按字段名排序依次写字段值，不写字段名
+ * <p>
+ * 格式：首字节 0xB1（未压缩）/ 0xB2（Deflate压缩），后面是
+ * 类型（0普通值/1逻辑过期）、[逻辑过期时间毫秒]、字段结构哈希、null位图、各个非null字段。<br>
+ * 整数用zigzag变长编码，字符串UTF-8，时间用秒+纳秒。
+ * 超过hmdp.cache.compress-threshold字节的值压缩后更小则压缩存储。
+ * 只支持字段都是基本类型、包装类型、String、BigDecimal、LocalDateTime、LocalDate的类（例如实体类），
+ * 实体类字段变化后结构哈希不一致，旧数据按未命中处理；数据损坏、截断同样返回null按未命中处理，不向调用方抛异常。
+ */
+@Slf4j
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte PLAIN = (byte) 0xB1;
+    private static final byte DEFLATED = (byte) 0xB2;
+    private static final byte KIND_VALUE = 0;
+    private static final byte KIND_LOGICAL = 1;
+
+    //字段类型
+    private static final byte T_LONG = 1;
+    private static final byte T_INT = 2;
+    private static final byte T_SHORT = 3;
+    private static final byte T_BYTE = 4;
+    private static final byte T_BOOLEAN = 5;
+    private static final byte T_DOUBLE = 6;
+    private static final byte T_FLOAT = 7;
+    private static final byte T_STRING = 8;
+    private static final byte T_DATE_TIME = 9;
+    private static final byte T_DATE = 10;
+    private static final byte T_DECIMAL = 11;
+
+    //类 -> 字段结构，不支持的类为UNSUPPORTED
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+    private static final Schema UNSUPPORTED = new Schema(null, new Field[0], new byte[0], 0);
+
+    private final int compressThreshold;
+
+    public BinaryCacheCodec(CacheClientProperties properties) {
+        this.compressThreshold = properties.getCompressThreshold();
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public boolean canDecode(byte[] raw) {
+        return raw.length > 0 && (raw[0] == PLAIN || raw[0] == DEFLATED);
+    }
+
+    @Override
+    public boolean canEncode(Class<?> type) {
+        return schema(type) != UNSUPPORTED;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output(128);
+        out.writeByte(KIND_VALUE);
+        writeObject(out, value);
+        return frame(out);
+    }
+
+    @Override
+    public <T> T decode(byte[] raw, Class<T> type) {
+        try {
+            Input in = new Input(unframe(raw));
+            if (in.readByte() != KIND_VALUE) {
+                return null;
+            }
+            Object value = readObject(in, type);
+            // 读完之后还有剩余字节，说明数据不是按这个结构写的
+            return in.finished() ? type.cast(value) : null;
+        } catch (RuntimeException e) {
+            log.warn("缓存数据无法解码，按未命中处理，type={}，length={}，原因：{}", type.getName(), raw.length, e.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(Object value, LocalDateTime expireTime) {
+        Output out = new Output(128);
+        out.writeByte(KIND_LOGICAL);
+        out.writeFixedLong(expireTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+        writeObject(out, value);
+        return frame(out);
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] raw, Class<?> type) {
+        try {
+            Input in = new Input(unframe(raw));
+            if (in.readByte() != KIND_LOGICAL) {
+                return null;
+            }
+            long expireMillis = in.readFixedLong();
+            Object data = readObject(in, type);
+            if (data == null || !in.finished()) {
+                return null;
+            }
+            LocalDateTime expireTime = LocalDateTime.ofEpochSecond(
+                    Math.floorDiv(expireMillis, 1000), (int) Math.floorMod(expireMillis, 1000) * 1_000_000, ZoneOffset.UTC);
+            return new RedisData(expireTime, data);
+        } catch (RuntimeException e) {
+            log.warn("缓存数据无法解码，按未命中处理，type={}，length={}，原因：{}", type.getName(), raw.length, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 加上首字节，超过阈值时尝试压缩
+     */
+    private byte[] frame(Output out) {
+        if (out.size > compressThreshold) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(out.buf, 0, out.size);
+                deflater.finish();
+                byte[] compressed = new byte[out.size + 1];
+                compressed[0] = DEFLATED;
+                int n = deflater.deflate(compressed, 1, compressed.length - 1);
+                if (deflater.finished() && n + 1 < compressed.length) {
+                    return Arrays.copyOf(compressed, n + 1);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        byte[] result = new byte[out.size + 1];
+        result[0] = PLAIN;
+        System.arraycopy(out.buf, 0, result, 1, out.size);
+        return result;
+    }
+
+    private static byte[] unframe(byte[] raw) {
+        if (raw[0] == PLAIN) {
+            return Arrays.copyOfRange(raw, 1, raw.length);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(raw, 1, raw.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length * 4);
+            byte[] buf = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("缓存数据不完整");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存数据解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeObject(Output out, Object value) {
+        Schema schema = schema(value.getClass());
+        if (schema == UNSUPPORTED) {
+            throw new IllegalArgumentException("不支持二进制编码的类型：" + value.getClass());
+        }
+        out.writeFixedInt(schema.hash);
+        try {
+            // 1.null位图
+            Object[] values = new Object[schema.fields.length];
+            byte[] nulls = new byte[(schema.fields.length + 7) >>> 3];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] == null) {
+                    nulls[i >>> 3] |= 1 << (i & 7);
+                }
+            }
+            out.writeBytes(nulls);
+            // 2.非null字段
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    writeField(out, schema.types[i], values[i]);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object readObject(Input in, Class<?> type) {
+        Schema schema = schema(type);
+        // 实体类字段变化，旧数据无法解码
+        if (schema == UNSUPPORTED || in.readFixedInt() != schema.hash) {
+            return null;
+        }
+        try {
+            Object value = schema.constructor.newInstance();
+            byte[] nulls = in.readBytes((schema.fields.length + 7) >>> 3);
+            for (int i = 0; i < schema.fields.length; i++) {
+                if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                    schema.fields[i].set(value, readField(in, schema.types[i]));
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeField(Output out, byte type, Object value) {
+        switch (type) {
+            case T_LONG:
+                out.writeVarLong(((Number) value).longValue());
+                break;
+            case T_INT:
+            case T_SHORT:
+            case T_BYTE:
+                out.writeVarLong(((Number) value).intValue());
+                break;
+            case T_BOOLEAN:
+                out.writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+                break;
+            case T_DOUBLE:
+                out.writeFixedLong(Double.doubleToLongBits((Double) value));
+                break;
+            case T_FLOAT:
+                out.writeFixedInt(Float.floatToIntBits((Float) value));
+                break;
+            case T_STRING:
+                out.writeString((String) value);
+                break;
+            case T_DATE_TIME:
+                LocalDateTime time = (LocalDateTime) value;
+                out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(time.getNano());
+                break;
+            case T_DATE:
+                out.writeVarLong(((LocalDate) value).toEpochDay());
+                break;
+            case T_DECIMAL:
+                out.writeString(((BigDecimal) value).toString());
+                break;
+            default:
+                throw new IllegalStateException("未知字段类型" + type);
+        }
+    }
+
+    private static Object readField(Input in, byte type) {
+        switch (type) {
+            case T_LONG:
+                return in.readVarLong();
+            case T_INT:
+                return (int) in.readVarLong();
+            case T_SHORT:
+                return (short) in.readVarLong();
+            case T_BYTE:
+                return (byte) in.readVarLong();
+            case T_BOOLEAN:
+                return in.readByte() != 0;
+            case T_DOUBLE:
+                return Double.longBitsToDouble(in.readFixedLong());
+            case T_FLOAT:
+                return Float.intBitsToFloat(in.readFixedInt());
+            case T_STRING:
+                return in.readString();
+            case T_DATE_TIME:
+                long seconds = in.readVarLong();
+                return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+            case T_DATE:
+                return LocalDate.ofEpochDay(in.readVarLong());
+            case T_DECIMAL:
+                return new BigDecimal(in.readString());
+            default:
+                throw new IllegalStateException("未知字段类型" + type);
+        }
+    }
+
+    private static Schema schema(Class<?> type) {
+        return SCHEMAS.computeIfAbsent(type, BinaryCacheCodec::buildSchema);
+    }
+
+    private static Schema buildSchema(Class<?> type) {
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return UNSUPPORTED;
+        }
+        // 1.所有非static、非transient字段（包括父类），按名称排序
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    fields.add(field);
+                }
+            }
+        }
+        fields.sort(Comparator.comparing(Field::getName));
+        // 2.字段类型，以及由字段名、类型算出的结构哈希
+        byte[] types = new byte[fields.size()];
+        int hash = type.getName().hashCode();
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            types[i] = fieldType(field.getType());
+            if (types[i] == 0) {
+                return UNSUPPORTED;
+            }
+            hash = 31 * hash + field.getName().hashCode();
+            hash = 31 * hash + types[i];
+        }
+        // 3.JDK内部的类等无法反射访问的类型也不支持
+        try {
+            constructor.setAccessible(true);
+            for (Field field : fields) {
+                field.setAccessible(true);
+            }
+        } catch (RuntimeException e) {
+            return UNSUPPORTED;
+        }
+        return new Schema(constructor, fields.toArray(new Field[0]), types, hash);
+    }
+
+    private static byte fieldType(Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return T_LONG;
+        } else if (type == Integer.class || type == int.class) {
+            return T_INT;
+        } else if (type == Short.class || type == short.class) {
+            return T_SHORT;
+        } else if (type == Byte.class || type == byte.class) {
+            return T_BYTE;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return T_BOOLEAN;
+        } else if (type == Double.class || type == double.class) {
+            return T_DOUBLE;
+        } else if (type == Float.class || type == float.class) {
+            return T_FLOAT;
+        } else if (type == String.class) {
+            return T_STRING;
+        } else if (type == LocalDateTime.class) {
+            return T_DATE_TIME;
+        } else if (type == LocalDate.class) {
+            return T_DATE;
+        } else if (type == BigDecimal.class) {
+            return T_DECIMAL;
+        }
+        return 0;
+    }
+
+    private static final class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final byte[] types;
+        private final int hash;
+
+        private Schema(Constructor<?> constructor, Field[] fields, byte[] types, int hash) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.types = types;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Output {
+        private byte[] buf;
+        private int size;
+
+        private Output(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+
+        private void writeByte(byte b) {
+            ensure(1);
+            buf[size++] = b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeFixedInt(int v) {
+            ensure(4);
+            for (int i = 3; i >= 0; i--) {
+                buf[size++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        private void writeFixedLong(long v) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buf[size++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        /**
+         * zigzag + 变长编码：绝对值小的数只占1~2个字节
+         */
+        private void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[size++] = (byte) zigzag;
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+
+        private Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        private boolean finished() {
+            return pos == buf.length;
+        }
+
+        private byte readByte() {
+            return buf[pos++];
+        }
+
+        private byte[] readBytes(int n) {
+            if (n > buf.length - pos) {
+                throw new IllegalStateException("缓存数据不完整");
+            }
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        private int readFixedInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift >= 64) {
+                    throw new IllegalStateException("变长整数格式错误");
+                }
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private String readString() {
+            long n = readVarLong();
+            if (n < 0 || n > buf.length - pos) {
+                throw new IllegalStateException("缓存数据不完整");
+            }
+            String s = new String(buf, pos, (int) n, StandardCharsets.UTF_8);
+            pos += (int) n;
+            return s;
+        }
+    }
+}
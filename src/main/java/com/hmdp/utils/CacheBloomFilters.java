@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_CHANNEL;
+
+/**
+ * 缓存穿透防护：每种数据（按key前缀）一个本地布隆过滤器，记录数据库中存在的id
+ * <p>
+ * 1.启动后按id顺序分批扫描表构建（构建完成前一律放行）<br>
+ * 2.新增数据时调用add，通过pub/sub同步给所有节点<br>
+ * 3.定时重建，清除已删除的id，并按实际数据量扩容
+ */
+@Slf4j
+@Component
+public class CacheBloomFilters implements MessageListener {
+
+    //每批扫描的id数量
+    private static final int SCAN_BATCH = 5000;
+
+    @Resource
+    private CacheClientProperties properties;
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //key前缀 -> 过滤器
+    private final Map<String, Holder> filters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        for (CacheClientProperties.Bloom bloom : properties.getBloom()) {
+            filters.put(bloom.getPrefix(), new Holder(bloom));
+        }
+        if (!filters.isEmpty()) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+        }
+    }
+
+    /**
+     * id是否可能存在；没有配置过滤器或尚未构建完成时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        Holder holder = filters.get(keyPrefix);
+        if (holder == null || holder.filter == null || !(id instanceof Number)) {
+            return true;
+        }
+        return holder.filter.mightContain(((Number) id).longValue());
+    }
+
+    /**
+     * 新增数据后调用：加入本地过滤器，并通知其它节点
+     */
+    public void add(String keyPrefix, Long id) {
+        Holder holder = filters.get(keyPrefix);
+        if (holder == null) {
+            return;
+        }
+        holder.put(id);
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + id);
+    }
+
+    /**
+     * 只加入本节点的过滤器（新增数据的事务提交后调用，让写入的节点马上能查到；其它节点由add的通知同步）
+     */
+    public void addLocal(String keyPrefix, Long id) {
+        Holder holder = filters.get(keyPrefix);
+        if (holder != null) {
+            holder.put(id);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (Map.Entry<String, Holder> entry : filters.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                try {
+                    entry.getValue().put(Long.valueOf(key.substring(entry.getKey().length())));
+                } catch (NumberFormatException e) {
+                    log.warn("无效的布隆过滤器消息：{}", key);
+                }
+                return;
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAll() {
+        for (Holder holder : filters.values()) {
+            try {
+                build(holder);
+            } catch (Exception e) {
+                // 构建失败时保留原来的过滤器（或一直放行），等下次重建
+                log.error("布隆过滤器{}构建失败", holder.config.getPrefix(), e);
+            }
+        }
+    }
+
+    @Scheduled(cron = "${hmdp.cache.bloom-rebuild-cron:0 0 4 * * ?}")
+    public void rebuildAll() {
+        buildAll();
+    }
+
+    /**
+     * 按id顺序分批扫描（where id > 上一批最大id limit n），不一次性把整张表读进内存
+     */
+    private void build(Holder holder) {
+        String table = holder.config.getTable();
+        long start = System.currentTimeMillis();
+        // 1.按实际数据量扩容，留出一倍增长空间
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        long expected = Math.max(holder.config.getExpectedInsertions(), count == null ? 0 : count * 2);
+        IdBloomFilter building = new IdBloomFilter(expected, holder.config.getFpp());
+        // 2.构建期间新增的id同时写入新过滤器
+        holder.building = building;
+        try {
+            long lastId = 0;
+            long total = 0;
+            while (true) {
+                List<Long> ids = jdbcTemplate.queryForList(
+                        "SELECT id FROM " + table + " WHERE id > ? ORDER BY id LIMIT " + SCAN_BATCH, Long.class, lastId);
+                for (Long id : ids) {
+                    building.put(id);
+                }
+                total += ids.size();
+                if (ids.size() < SCAN_BATCH) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+            }
+            // 3.替换
+            holder.filter = building;
+            log.info("布隆过滤器{}构建完成，{}个id，耗时{}ms", holder.config.getPrefix(), total, System.currentTimeMillis() - start);
+        } finally {
+            holder.building = null;
+        }
+    }
+
+    private static class Holder {
+        private final CacheClientProperties.Bloom config;
+        //正在使用的过滤器（null代表尚未构建）、正在构建的过滤器
+        private volatile IdBloomFilter filter;
+        private volatile IdBloomFilter building;
+
+        private Holder(CacheClientProperties.Bloom config) {
+            this.config = config;
+        }
+
+        private void put(long id) {
+            // 先读building再读filter：构建完成时先替换filter再清空building，这样不会两边都漏掉
+            IdBloomFilter next = building;
+            if (next != null) {
+                next.put(id);
+            }
+            IdBloomFilter current = filter;
+            if (current != null && current != next) {
+                current.put(id);
+            }
+        }
+    }
+}
@@ -1,73 +1,229 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheClientProperties;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
 
+/**
+ * 缓存工具：Redis缓存，可按key前缀在前面加一层本地一级缓存（hmdp.cache.local）
+ * <p>
+ * 本地缓存中存的是反序列化后的对象（逻辑过期的数据存RedisData），命中时不访问Redis、不解析JSON；
+ * 调用方拿到的是共享对象，不要修改。数据修改时调用invalidate，通过pub/sub让所有节点删除本地缓存。
+ * <p>
+ * 缓存未命中时，同一节点内相同key的请求合并为一次加载（SingleFlight），多个节点之间用Redis互斥锁保证只有一个节点查库，
+ * 没抢到锁的节点等待重建完成的广播，而不是休眠轮询。
+ * <p>
+ * 配置了布隆过滤器（hmdp.cache.bloom）的前缀，查询前先判断id是否存在，不存在的id不访问Redis和数据库。
+ * <p>
+ * 缓存值的编码见{@link CacheCodec}：按hmdp.cache.codec写入，读取时按首字节选择编码；无法解码的值按未命中处理。
+ */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    //本地缓存中代表"数据库中不存在"的空值
+    private static final Object NULL_VALUE = new Object();
 
     private final StringRedisTemplate stringRedisTemplate;
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final RedisClusterAsyncCommands<String, byte[]> asyncBinaryRedisCommands;
+    private final CacheClientProperties properties;
+    private final List<CacheCodec> codecs;
+    //写入用的编码、类型不支持时退回的JSON编码
+    private final CacheCodec writeCodec;
+    private final CacheCodec jsonCodec;
+    private final CacheBloomFilters bloomFilters;
+    private final CacheRebuildScheduler rebuildScheduler;
+    private final SingleFlight singleFlight = new SingleFlight();
+    //key -> 等待其它节点重建完成的通知
+    private final Map<String, CompletableFuture<Void>> rebuildWaiters = new ConcurrentHashMap<>();
+    //key前缀 -> 本地缓存
+    private final Map<String, LRUCache<String, Object>> localCaches = new LinkedHashMap<>();
+    //key前缀 -> 过期策略（有效期随机化、提前刷新）
+    private final Map<String, CacheTtlPolicy> ttlPolicies = new LinkedHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisClusterAsyncCommands<String, byte[]> asyncBinaryRedisCommands,
+                       CacheClientProperties properties,
+                       List<CacheCodec> codecs,
+                       CacheBloomFilters bloomFilters,
+                       CacheRebuildScheduler rebuildScheduler,
+                       RedisMessageListenerContainer redisMessageListenerContainer) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.asyncBinaryRedisCommands = asyncBinaryRedisCommands;
+        this.properties = properties;
+        this.codecs = codecs;
+        this.writeCodec = codec(properties.getCodec());
+        this.jsonCodec = codec("json");
+        this.bloomFilters = bloomFilters;
+        this.rebuildScheduler = rebuildScheduler;
+        for (CacheClientProperties.Local local : properties.getLocal()) {
+            localCaches.put(local.getPrefix(), CacheUtil.newLRUCache(local.getCapacity(), local.getTtlMs()));
+        }
+        for (CacheClientProperties.Ttl ttl : properties.getTtl()) {
+            ttlPolicies.put(ttl.getPrefix(), new CacheTtlPolicy(ttl.getJitter(), ttl.isEarlyRefresh(), ttl.getBeta()));
+        }
+        //订阅其它节点的失效通知、重建完成通知
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_REBUILT_CHANNEL));
     }
+
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);//对象value要序列化成字符串
+        byte[] raw = codecFor(value).encode(value);//对象value要序列化
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        // 有效期按前缀配置随机延长，同一批写入的key不会同时过期
+        long ttlMillis = ttlPolicy(key).jitter(unit.toMillis(time));
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.pSetEx(rawKey, ttlMillis, raw));
+        evictLocal(key);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        // 设置逻辑过期（同样随机延长）
+        LocalDateTime expireTime = expireTime(key, time, unit);
+        byte[] raw = codecFor(value).encodeLogical(value, expireTime);
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.set(rawKey, raw));
+        evictLocal(key);
+    }
+
+    /**
+     * 批量写入（pipeline），用于预热；有效期同样按前缀随机延长
+     */
+    public <R, ID> void setAll(String keyPrefix, Map<ID, R> values, Long time, TimeUnit unit) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<ID, R> entry : values.entrySet()) {
+                R r = entry.getValue();
+                connection.pSetEx((keyPrefix + entry.getKey()).getBytes(StandardCharsets.UTF_8),
+                        ttlPolicy(keyPrefix).jitter(unit.toMillis(time)), codecFor(r).encode(r));
+            }
+            return null;
+        });
+        for (ID id : values.keySet()) {
+            evictLocal(keyPrefix + id);
+        }
+    }
+
+    /**
+     * 批量写入逻辑过期数据（pipeline），用于预热
+     */
+    public <R, ID> void setAllWithLogicalExpire(String keyPrefix, Map<ID, R> values, Long time, TimeUnit unit) {
+        writeLogical(keyPrefix, new ArrayList<>(values.keySet()), values, time, unit);
     }
 
+    /**
+     * 数据已修改，且缓存按逻辑过期读取（key不能删除，否则读不到）：写入新数据，并通知所有节点删除本地缓存
+     */
+    public void refreshWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit);
+        if (localCache(key) != null) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
 
+    /**
+     * 数据已修改：删除Redis缓存，并通知所有节点（包括自己）删除本地缓存
+     */
+    public void invalidate(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        if (localCache(key) != null) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 读取逻辑过期缓存中的当前值（本地缓存或Redis），不查库、不重建；没有缓存或无法解码时返回null
+     */
+    public <R> R peekLogical(String key, Class<R> type) {
+        RedisData redisData = getLocalLogical(key);
+        if (redisData == null) {
+            byte[] raw = getRaw(key);
+            CacheCodec codec = raw == null || raw.length == 0 ? null : codecOf(raw);
+            redisData = codec == null ? null : codec.decodeLogical(raw, type);
+        }
+        return redisData == null ? null : type.cast(redisData.getData());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (CACHE_REBUILT_CHANNEL.equals(new String(message.getChannel(), StandardCharsets.UTF_8))) {
+            // 其它节点重建完成，唤醒本节点等待的线程
+            CompletableFuture<Void> waiter = rebuildWaiters.get(key);
+            if (waiter != null) {
+                waiter.complete(null);
+            }
+            return;
+        }
+        evictLocal(key);
+    }
 
     //缓存穿透解决缓存击穿（用泛型来定义未知返回值类型）
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){//Function函数调用
+        // 0.布隆过滤器判断id一定不存在，直接返回
+        if (!bloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);//存在就序列化
+        // 0.1.先查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
+        // 1.从redis查询商铺缓存（开启提前刷新的前缀，临近过期时按概率触发后台刷新）
+        Object cached = readValue(key, type, () -> refreshEarly(key, id, dbFallback, time, unit));
+        // 2.判断是否存在（命中空值时返回null）
+        if (cached != null) {
+            // 3.存在，直接返回
+            return cached == NULL_VALUE ? null : type.cast(cached);
         }
 
-        // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);//根据调用者的查询函数
-        // 5.不存在，返回错误
-        if (r == null) {
-            // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
-            return null;
-        }
-        // 6.存在，写入redis
-        this.set(key, r, time, unit);//unit是单位（分钟，秒）
-        return r;
+        // 4.不存在（或旧格式无法解码），根据id查询数据库（本节点同一个key的并发请求只查一次）
+        return singleFlight.execute(key, () -> {
+            R r = load(key, id, dbFallback);//根据调用者的查询函数
+            // 5.不存在，返回错误
+            if (r == null) {
+                // 将空值写入redis
+                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                // 返回错误信息
+                return null;
+            }
+            // 6.存在，写入redis
+            this.set(key, r, time, unit);//unit是单位（分钟，秒）
+            return r;
+        });
     }
 
 
@@ -82,99 +238,494 @@ public class CacheClient {
 
     //互斥锁解决缓存击穿
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断id一定不存在，直接返回
+        if (!bloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
+        // 0.1.先查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        // 1.从redis查询商铺缓存（开启提前刷新的前缀，临近过期时按概率触发后台刷新）
+        Object cached = readValue(key, type, () -> refreshEarly(key, id, dbFallback, time, unit));
+        // 2.判断是否存在（命中空值时返回null）
+        if (cached != null) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            return cached == NULL_VALUE ? null : type.cast(cached);
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
+
+        // 4.实现缓存重建：本节点同一个key只有一个线程去抢锁重建，其它线程等待它的结果
+        return singleFlight.execute(key, () -> loadWithMutex(key, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 跨节点互斥重建：抢到锁的节点查库写缓存并广播，没抢到的节点等待广播后读缓存
+     */
+    private <R, ID> R loadWithMutex(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String lockKey = CacheRebuildScheduler.lockKey(key);
+        for (int attempt = 0; attempt < properties.getMutexAttempts(); attempt++) {
+            // 4.1.先登记等待，再抢锁，避免错过抢锁失败之后才发出的重建通知
+            CompletableFuture<Void> rebuilt = rebuildWaiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+            try {
+                // 4.2.获取互斥锁
+                if (tryLock(lockKey)) {
+                    try {
+                        // 4.3.获取锁成功，再查一次缓存（可能刚被其它节点重建）
+                        Object cached = readValue(key, type, null);
+                        if (cached != null) {
+                            return cached == NULL_VALUE ? null : type.cast(cached);
+                        }
+                        // 4.4.根据id查询数据库
+                        R r = load(key, id, dbFallback);
+                        if (r == null) {
+                            // 5.不存在，将空值写入redis
+                            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        } else {
+                            // 6.存在，写入redis
+                            this.set(key, r, time, unit);
+                        }
+                        // 6.1.通知等待的节点
+                        stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+                        return r;
+                    } finally {
+                        // 7.释放锁
+                        unlock(lockKey);
+                    }
+                }
+                // 4.5.获取锁失败，其它节点正在重建：等待重建完成的通知（最多mutex-wait-ms）后读缓存
+                Object cached = readValue(key, type, null);
+                if (cached == null) {
+                    awaitRebuilt(rebuilt);
+                    cached = readValue(key, type, null);
+                }
+                if (cached != null) {
+                    return cached == NULL_VALUE ? null : type.cast(cached);
+                }
+            } finally {
+                rebuildWaiters.remove(key, rebuilt);
+            }
         }
+        // 8.多次等待仍未重建（持锁节点异常或重建很慢），直接查询数据库，不写缓存
+        return dbFallback.apply(id);
+    }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+    private void awaitRebuilt(CompletableFuture<Void> rebuilt) {
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
-            }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
+            rebuilt.get(properties.getMutexWaitMs(), TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+        } catch (ExecutionException | TimeoutException e) {
+            // 超时后重新读缓存、重新抢锁
+        }
+    }
+
+    /**
+     * 读取并解码缓存的值，放入本地缓存
+     * @param refreshEarly 开启提前刷新的前缀，GET的同时查询剩余有效期，需要提前刷新时执行；null代表不判断
+     * @return null代表未命中（包括无法解码的旧数据），NULL_VALUE代表缓存的空值（数据库中不存在）
+     */
+    private Object readValue(String key, Class<?> type, Runnable refreshEarly) {
+        CacheTtlPolicy policy = ttlPolicy(key);
+        if (refreshEarly == null || !policy.isEarlyRefresh()) {
+            Object value = decodeValue(getRaw(key), type);
+            if (value != null) {
+                putLocal(key, value);
+            }
+            return value;
+        }
+        // GET和PTTL在一次往返中完成
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.openPipeline();
+            connection.get(rawKey);
+            connection.pTtl(rawKey);
+            return connection.closePipeline();
+        });
+        Object value = decodeValue((byte[]) results.get(0), type);
+        if (value != null) {
+            putLocal(key, value);
+            if (value != NULL_VALUE && policy.shouldRefreshEarly((Long) results.get(1))) {
+                refreshEarly.run();
+            }
         }
-        // 8.返回
+        return value;
+    }
+
+    /**
+     * 提前刷新：交给重建调度查库覆盖缓存，当前请求直接返回旧值
+     */
+    private <R, ID> void refreshEarly(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        rebuildScheduler.submit(key, () -> {
+            R r = load(key, id, dbFallback);
+            // 数据已被删除的，等缓存自然过期
+            if (r != null) {
+                this.set(key, r, time, unit);
+            }
+        });
+    }
+
+    /**
+     * 查库，并记录耗时（提前刷新按重建耗时计算概率）
+     */
+    private <R, ID> R load(String key, ID id, Function<ID, R> dbFallback) {
+        long start = System.nanoTime();
+        R r = dbFallback.apply(id);
+        ttlPolicy(key).recordRebuild((System.nanoTime() - start) / 1_000_000.0);
         return r;
     }
 
+    /**
+     * 批量查询（缓存穿透方案的批量版）：一次MGET，未命中的id一次查库，回写用pipeline，不存在的id缓存空值
+     * @param dbFallback 根据未命中的id批量查询数据库（例如listByIds），返回 id -> 数据
+     * @return id -> 数据，不存在的id不在结果中
+     */
+    public <R, ID> Map<ID, R> multiGet(String keyPrefix, Collection<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> result = new HashMap<>();
+        // 1.布隆过滤器、本地缓存，剩下的id查Redis
+        List<ID> remote = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilters.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            Object local = getLocal(keyPrefix + id);
+            if (local == null) {
+                remote.add(id);
+            } else if (local != NULL_VALUE) {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (remote.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET
+        List<byte[]> raws = mGetRaw(keyPrefix, remote);
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < remote.size(); i++) {
+            ID id = remote.get(i);
+            Object value = decodeValue(raws.get(i), type);
+            if (value == null) {
+                // 未命中（或旧格式无法解码）
+                misses.add(id);
+                continue;
+            }
+            putLocal(keyPrefix + id, value);
+            if (value != NULL_VALUE) {
+                result.put(id, type.cast(value));
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id一次查库
+        Map<ID, R> loaded = dbFallback.apply(misses);
+        // 4.pipeline回写，数据库中不存在的写空值
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                if (r == null) {
+                    connection.pSetEx(rawKey, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), new byte[0]);
+                } else {
+                    connection.pSetEx(rawKey, ttlPolicy(keyPrefix).jitter(unit.toMillis(time)), codecFor(r).encode(r));
+                    result.put(id, r);
+                }
+            }
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * 批量查询（逻辑过期方案的批量版）：一次MGET，Redis中没有的id不返回（需要提前预热）；
+     * 过期的数据先返回旧值，合并成一个任务在重建线程池中批量查库、pipeline回写
+     * @return id -> 数据
+     */
+    public <R, ID> Map<ID, R> multiGetWithLogicalExpire(String keyPrefix, Collection<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, RedisData> cached = new LinkedHashMap<>();
+        // 1.布隆过滤器、本地缓存，剩下的id查Redis
+        List<ID> remote = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilters.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            RedisData local = getLocalLogical(keyPrefix + id);
+            if (local == null) {
+                remote.add(id);
+            } else {
+                cached.put(id, local);
+            }
+        }
+        // 2.一次MGET，旧格式无法解码的id同步重建
+        List<ID> reload = new ArrayList<>();
+        if (!remote.isEmpty()) {
+            List<byte[]> raws = mGetRaw(keyPrefix, remote);
+            for (int i = 0; i < remote.size(); i++) {
+                byte[] raw = raws.get(i);
+                if (raw == null || raw.length == 0) {
+                    continue;
+                }
+                RedisData redisData = decodeLogical(keyPrefix + remote.get(i), raw, type);
+                if (redisData == null) {
+                    reload.add(remote.get(i));
+                } else {
+                    cached.put(remote.get(i), redisData);
+                }
+            }
+        }
+        Map<ID, R> result = new HashMap<>();
+        if (!reload.isEmpty()) {
+            Map<ID, R> loaded = dbFallback.apply(reload);
+            writeLogical(keyPrefix, reload, loaded, time, unit);
+            result.putAll(loaded);
+        }
+        // 3.判断逻辑过期，过期的id合并成一个重建任务（只重建抢到锁的id）
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, ID> expired = new LinkedHashMap<>();
+        for (Map.Entry<ID, RedisData> entry : cached.entrySet()) {
+            RedisData redisData = entry.getValue();
+            if (redisData.getData() != null) {
+                result.put(entry.getKey(), type.cast(redisData.getData()));
+            }
+            if (!redisData.getExpireTime().isAfter(now)) {
+                expired.put(keyPrefix + entry.getKey(), entry.getKey());
+            }
+        }
+        if (!expired.isEmpty()) {
+            rebuildScheduler.submit(expired.keySet(), lockedKeys -> {
+                List<ID> locked = new ArrayList<>(lockedKeys.size());
+                for (String key : lockedKeys) {
+                    locked.add(expired.get(key));
+                }
+                writeLogical(keyPrefix, locked, dbFallback.apply(locked), time, unit);
+            });
+        }
+        return result;
+    }
+
+    /**
+     * pipeline写入一批逻辑过期数据（数据库中不存在的id写入data为null的数据）
+     */
+    private <R, ID> void writeLogical(String keyPrefix, List<ID> ids, Map<ID, R> loaded, Long time, TimeUnit unit) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                R r = loaded.get(id);
+                // 每个key的逻辑过期时间各自随机延长
+                connection.set((keyPrefix + id).getBytes(StandardCharsets.UTF_8),
+                        codecFor(r).encodeLogical(r, expireTime(keyPrefix, time, unit)));
+            }
+            return null;
+        });
+        for (ID id : ids) {
+            evictLocal(keyPrefix + id);
+        }
+    }
 
-    //创建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
     //逻辑过期解决缓存击穿
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        // 0.布隆过滤器判断id一定不存在，直接返回
+        if (!bloomFilters.mightContain(keyPrefix, id)) {
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        String key = keyPrefix + id;
+        // 0.1.先查本地缓存（本地缓存的数据也要判断逻辑过期）
+        RedisData redisData = getLocalLogical(key);
+        if (redisData == null) {
+            // 1.从redis查询商铺缓存
+            byte[] raw = getRaw(key);
+            // 2.判断是否存在
+            if (raw == null || raw.length == 0) {
+                // 3.不存在，直接返回
+                return null;
+            }
+            // 4.命中，需要先反序列化为对象
+            redisData = decodeLogical(key, raw, type);
+            if (redisData == null) {
+                // 4.1.旧格式无法解码，同步重建
+                return singleFlight.execute(key, () -> reloadLogical(key, id, dbFallback, time, unit));
+            }
+        }
+        return resolveLogical(key, redisData, id, type, dbFallback, time, unit);
+    }
+
+    /**
+     * 逻辑过期的异步版本：本地缓存未命中时通过Lettuce异步读取Redis，不占用调用线程
+     * <p>
+     * 返回的future可能在Lettuce的IO线程上完成，缓存重建交给重建线程池。
+     */
+    public <R, ID> CompletableFuture<R> queryWithLogicalExpireAsync(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        if (!bloomFilters.mightContain(keyPrefix, id)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = keyPrefix + id;
+        RedisData local = getLocalLogical(key);
+        if (local != null) {
+            return CompletableFuture.completedFuture(resolveLogical(key, local, id, type, dbFallback, time, unit));
+        }
+        return asyncBinaryRedisCommands.get(key).toCompletableFuture().<R>thenCompose(raw -> {
+            if (raw == null || raw.length == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            RedisData redisData = decodeLogical(key, raw, type);
+            if (redisData == null) {
+                // 旧格式无法解码，在重建线程池中查库重建（不阻塞IO线程）
+                return rebuildScheduler.supply(
+                        () -> singleFlight.execute(key, () -> reloadLogical(key, id, dbFallback, time, unit)));
+            }
+            return CompletableFuture.completedFuture(resolveLogical(key, redisData, id, type, dbFallback, time, unit));
+        });
+    }
+
+    /**
+     * 解码逻辑过期数据，放入本地缓存；无法解码时返回null
+     */
+    private RedisData decodeLogical(String key, byte[] raw, Class<?> type) {
+        CacheCodec codec = codecOf(raw);
+        RedisData redisData = codec == null ? null : codec.decodeLogical(raw, type);
+        if (redisData != null) {
+            putLocal(key, redisData);
+        }
+        return redisData;
+    }
+
+    /**
+     * 同步查库并重新写入逻辑过期数据
+     */
+    private <R, ID> R reloadLogical(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = load(key, id, dbFallback);
+        this.setWithLogicalExpire(key, r, time, unit);
+        return r;
+    }
+
+    /**
+     * 判断逻辑过期，过期则异步重建，返回（可能过期的）数据
+     */
+    private <R, ID> R resolveLogical(String key, RedisData redisData, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
+        // 5.判断是否过期（开启提前刷新的前缀，临近过期时按概率提前重建）
+        long remaining = Duration.between(LocalDateTime.now(), expireTime).toMillis();
+        if (remaining > 0 && !ttlPolicy(key).shouldRefreshEarly(remaining)) {
             // 5.1.未过期，直接返回店铺信息
             return r;
         }
-        // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+        // 5.2.已过期（或提前刷新），需要缓存重建
+        // 6.缓存重建：交给重建调度（调用线程可能是Lettuce的IO线程，不能阻塞），
+        // 同一个key已在排队时不重复提交，执行前获取互斥锁，失败说明其它节点正在重建
+        rebuildScheduler.submit(key, () -> {
+            // 6.1.查询数据库
+            R newR = load(key, id, dbFallback);
+            // 6.2.重建缓存
+            this.setWithLogicalExpire(key, newR, time, unit);
+        });
         // 6.4.返回过期的商铺信息
         return r;
     }
 
+    /**
+     * 随机延长之后的逻辑过期时间
+     */
+    private LocalDateTime expireTime(String key, Long time, TimeUnit unit) {
+        return LocalDateTime.now().plus(ttlPolicy(key).jitter(unit.toMillis(time)), ChronoUnit.MILLIS);
+    }
+
+    private CacheTtlPolicy ttlPolicy(String key) {
+        for (Map.Entry<String, CacheTtlPolicy> entry : ttlPolicies.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return CacheTtlPolicy.NONE;
+    }
+
+    private byte[] getRaw(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private List<byte[]> mGetRaw(String keyPrefix, List<?> ids) {
+        byte[][] rawKeys = new byte[ids.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = (keyPrefix + ids.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+    }
+
+    /**
+     * @return null代表未命中或无法解码，NULL_VALUE代表缓存的空值
+     */
+    private Object decodeValue(byte[] raw, Class<?> type) {
+        if (raw == null) {
+            return null;
+        }
+        if (raw.length == 0) {
+            return NULL_VALUE;
+        }
+        CacheCodec codec = codecOf(raw);
+        return codec == null ? null : codec.decode(raw, type);
+    }
+
+    /**
+     * 按首字节找到能解码的编码
+     */
+    private CacheCodec codecOf(byte[] raw) {
+        for (CacheCodec codec : codecs) {
+            if (codec.canDecode(raw)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 写入用的编码，类型不支持（或value为null）时用JSON
+     */
+    private CacheCodec codecFor(Object value) {
+        return value != null && writeCodec.canEncode(value.getClass()) ? writeCodec : jsonCodec;
+    }
+
+    private CacheCodec codec(String name) {
+        for (CacheCodec codec : codecs) {
+            if (codec.name().equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("未知的缓存编码：" + name);
+    }
+
+    private LRUCache<String, Object> localCache(String key) {
+        for (Map.Entry<String, LRUCache<String, Object>> entry : localCaches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Object getLocal(String key) {
+        LRUCache<String, Object> cache = localCache(key);
+        // 不因访问而延长有效期
+        return cache == null ? null : cache.get(key, false);
+    }
+
+    private RedisData getLocalLogical(String key) {
+        Object local = getLocal(key);
+        return local instanceof RedisData ? (RedisData) local : null;
+    }
+
+    private void putLocal(String key, Object value) {
+        LRUCache<String, Object> cache = localCache(key);
+        if (cache != null) {
+            cache.put(key, value);
+        }
+    }
+
+    private void evictLocal(String key) {
+        LRUCache<String, Object> cache = localCache(key);
+        if (cache != null) {
+            cache.remove(key);
+        }
+    }
 }
@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * CacheClient的缓存值编码
+ * <p>
+ * 约定首字节区分格式：小于0x80是JSON文本（旧格式），其它值由各个二进制编码自己定义，
+ * 读取时按首字节选择编码，切换写入格式期间新旧数据可以共存。
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码名称，对应配置 hmdp.cache.codec
+     */
+    String name();
+
+    /**
+     * 是否能解码这个值（按首字节判断）
+     */
+    boolean canDecode(byte[] raw);
+
+    /**
+     * 是否能编码这个类型，不能时CacheClient改用JSON
+     */
+    boolean canEncode(Class<?> type);
+
+    byte[] encode(Object value);
+
+    /**
+     * @return 解码结果；数据结构已经变化无法解码时返回null，按未命中处理
+     */
+    <T> T decode(byte[] raw, Class<T> type);
+
+    /**
+     * 编码逻辑过期数据
+     */
+    byte[] encodeLogical(Object value, LocalDateTime expireTime);
+
+    /**
+     * @return data已经是type类型的RedisData；无法解码时返回null
+     */
+    RedisData decodeLogical(byte[] raw, Class<?> type);
+}
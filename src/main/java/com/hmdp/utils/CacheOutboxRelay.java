@@ -0,0 +1,152 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.service.ICacheOutboxService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 处理缓存失效outbox（tb_cache_outbox）：按数据类型交给注册的处理器，删除缓存、更新派生索引
+ * <p>
+ * 1.事务提交后立即处理一次，定时任务补偿漏掉的和需要重试的<br>
+ * 2.处理前先把next_retry_time推后lease-ms作为认领，只有一个线程/节点能认领成功<br>
+ * 3.第一次成功后等second-delete-delay-ms再执行一次（延迟双删），清掉删除期间用旧数据重建的缓存<br>
+ * 4.失败按指数退避重试，超过max-retries标记为失败并记录日志
+ */
+@Slf4j
+@Component
+public class CacheOutboxRelay {
+
+    public static final int PHASE_FIRST = 0;
+    public static final int PHASE_SECOND = 1;
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_FAILED = 1;
+
+    @Resource
+    private ICacheOutboxService outboxService;
+    @Resource
+    private CacheClientProperties properties;
+
+    //数据类型 -> 处理器（参数为数据id）
+    private final Map<String, Consumer<Long>> handlers = new ConcurrentHashMap<>();
+    //事务提交后立即处理用的线程，队列满时丢弃，由定时任务补偿
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000), new NamedThreadFactory("cache-outbox-", true), new ThreadPoolExecutor.DiscardPolicy());
+
+    /**
+     * 注册一种数据的变更处理器，处理器需要幂等（会重试、会执行两次）
+     */
+    public void register(String aggregateType, Consumer<Long> handler) {
+        handlers.put(aggregateType, handler);
+    }
+
+    /**
+     * outbox时间精确到毫秒，与datetime(3)一致，认领时才能按值比较
+     */
+    public static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    /**
+     * 事务提交后立即处理
+     */
+    public void kick(CacheOutbox outbox) {
+        executor.execute(() -> process(outbox));
+    }
+
+    /**
+     * 补偿：处理到期的outbox
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.outbox.poll-interval-ms:1000}")
+    public void poll() {
+        List<CacheOutbox> list = outboxService.query()
+                .eq("status", STATUS_PENDING)
+                .le("next_retry_time", now())
+                .orderByAsc("id")
+                .last("LIMIT " + properties.getOutbox().getBatchSize())
+                .list();
+        for (CacheOutbox outbox : list) {
+            process(outbox);
+        }
+    }
+
+    private void process(CacheOutbox outbox) {
+        CacheClientProperties.Outbox config = properties.getOutbox();
+        LocalDateTime now = now();
+        // 1.认领：把下次处理时间推后lease，条件更新成功的线程/节点才处理
+        boolean claimed = outboxService.update()
+                .set("next_retry_time", now.plus(config.getLeaseMs(), ChronoUnit.MILLIS))
+                .eq("id", outbox.getId())
+                .eq("status", STATUS_PENDING)
+                .eq("phase", outbox.getPhase())
+                .eq("next_retry_time", outbox.getNextRetryTime())
+                .le("next_retry_time", now)
+                .update();
+        if (!claimed) {
+            return;
+        }
+        // 2.执行处理器
+        try {
+            Consumer<Long> handler = handlers.get(outbox.getAggregateType());
+            if (handler == null) {
+                throw new IllegalStateException("没有注册处理器：" + outbox.getAggregateType());
+            }
+            handler.accept(outbox.getAggregateId());
+        } catch (Exception e) {
+            retry(outbox, e);
+            return;
+        }
+        // 3.第一次成功：延迟后再执行一次；第二次成功：删除outbox
+        if (outbox.getPhase() == PHASE_FIRST && config.getSecondDeleteDelayMs() > 0) {
+            outboxService.update()
+                    .set("phase", PHASE_SECOND)
+                    .set("retries", 0)
+                    .set("next_retry_time", now().plus(config.getSecondDeleteDelayMs(), ChronoUnit.MILLIS))
+                    .eq("id", outbox.getId())
+                    .update();
+        } else {
+            outboxService.removeById(outbox.getId());
+        }
+    }
+
+    /**
+     * 指数退避重试，超过最大次数标记为失败
+     */
+    private void retry(CacheOutbox outbox, Exception e) {
+        CacheClientProperties.Outbox config = properties.getOutbox();
+        int retries = outbox.getRetries() + 1;
+        if (retries > config.getMaxRetries()) {
+            outboxService.update().set("status", STATUS_FAILED).set("retries", retries).eq("id", outbox.getId()).update();
+            log.error("缓存失效outbox处理失败，已放弃：{}:{}", outbox.getAggregateType(), outbox.getAggregateId(), e);
+            return;
+        }
+        long delay = Math.min(config.getRetryMaxMs(), config.getRetryBaseMs() << Math.min(retries - 1, 20));
+        outboxService.update()
+                .set("retries", retries)
+                .set("next_retry_time", now().plus(delay, ChronoUnit.MILLIS))
+                .eq("id", outbox.getId())
+                .update();
+        log.warn("缓存失效outbox处理失败，{}ms后第{}次重试：{}:{}，{}",
+                delay, retries, outbox.getAggregateType(), outbox.getAggregateId(), e.getMessage());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+}
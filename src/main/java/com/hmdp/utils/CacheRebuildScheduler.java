@@ -0,0 +1,226 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.CacheClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_KEY_PREFIX;
+import static com.hmdp.utils.RedisConstants.LOCK_KEY_PREFIX;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
+
+/**
+ * 缓存重建调度：所有key前缀共用一个重建线程池（hmdp.cache.rebuild）
+ * <p>
+ * 1.去重：同一个key的重建已在排队或执行中时不再提交<br>
+ * 2.有界队列：队列满时丢弃最早排队的任务（过期数据仍在缓存中，之后读到时会重新提交）<br>
+ * 3.执行前按key抢Redis互斥锁，锁key是 lock: + 去掉cache:的key（例如cache:shop:1 -> lock:shop:1），
+ * 不同数据类型的锁互不影响，多个节点对同一个key也只重建一次<br>
+ * 4.指标：cache.rebuild.latency（重建耗时）、cache.rebuild.queue（排队任务数）、cache.rebuild.pending（排队和执行中的key数）、
+ * cache.rebuild.keys{result=accepted|deduplicated|dropped|failed}
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ThreadPoolExecutor executor;
+    //已提交、尚未执行完的key
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final Timer latency;
+    private final Counter accepted;
+    private final Counter deduplicated;
+    private final Counter dropped;
+    private final Counter failed;
+
+    public CacheRebuildScheduler(StringRedisTemplate stringRedisTemplate, CacheClientProperties properties, MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        CacheClientProperties.Rebuild config = properties.getRebuild();
+        this.executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()), new NamedThreadFactory("cache-rebuild-", true),
+                this::dropOldest);
+        this.latency = Timer.builder("cache.rebuild.latency").publishPercentiles(0.5, 0.99).register(meterRegistry);
+        this.accepted = counter(meterRegistry, "accepted");
+        this.deduplicated = counter(meterRegistry, "deduplicated");
+        this.dropped = counter(meterRegistry, "dropped");
+        this.failed = counter(meterRegistry, "failed");
+        Gauge.builder("cache.rebuild.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("cache.rebuild.pending", pending, Set::size).register(meterRegistry);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("cache.rebuild.keys").tag("result", result).register(meterRegistry);
+    }
+
+    /**
+     * 缓存key对应的重建锁
+     */
+    public static String lockKey(String key) {
+        return LOCK_KEY_PREFIX + StrUtil.removePrefix(key, CACHE_KEY_PREFIX);
+    }
+
+    /**
+     * 提交一个key的重建，执行前抢锁，抢不到锁说明其它节点正在重建，直接跳过
+     * @return 是否提交（已在排队或执行中返回false）
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        return submit(Collections.singletonList(key), keys -> rebuild.run());
+    }
+
+    /**
+     * 提交一批key的重建（合并成一次查库）：已在排队或执行中的key不再提交；执行时只把抢到锁的key交给rebuild
+     * @return 是否提交
+     */
+    public boolean submit(Collection<String> keys, Consumer<List<String>> rebuild) {
+        List<String> claimed = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (pending.add(key)) {
+                claimed.add(key);
+            } else {
+                deduplicated.increment();
+            }
+        }
+        if (claimed.isEmpty()) {
+            return false;
+        }
+        accepted.increment(claimed.size());
+        executor.execute(new RebuildTask(claimed, rebuild));
+        return true;
+    }
+
+    /**
+     * 需要结果的查库（例如异步接口中无法解码的缓存）：不去重、不抢锁，被丢弃时future以RejectedExecutionException结束
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        SupplyTask<T> task = new SupplyTask<>(supplier);
+        executor.execute(task);
+        return task.future;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 队列满时丢弃最早排队的任务，新任务入队
+     */
+    private void dropOldest(Runnable task, ThreadPoolExecutor executor) {
+        if (!executor.isShutdown()) {
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest != null) {
+                ((Task) oldest).drop();
+            }
+            if (executor.getQueue().offer(task)) {
+                return;
+            }
+        }
+        ((Task) task).drop();
+    }
+
+    private boolean tryLock(String key) {
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag);
+    }
+
+    private void unlock(String key) {
+        stringRedisTemplate.delete(key);
+    }
+
+    private interface Task extends Runnable {
+        /**
+         * 任务被丢弃（队列满或线程池已关闭）
+         */
+        void drop();
+    }
+
+    private class RebuildTask implements Task {
+        private final List<String> keys;
+        private final Consumer<List<String>> rebuild;
+
+        private RebuildTask(List<String> keys, Consumer<List<String>> rebuild) {
+            this.keys = keys;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public void run() {
+            List<String> locked = new ArrayList<>(keys.size());
+            try {
+                // 1.逐个抢锁，抢不到的key由其它线程/节点重建
+                for (String key : keys) {
+                    if (tryLock(lockKey(key))) {
+                        locked.add(key);
+                    }
+                }
+                // 2.重建（查库、写缓存）
+                if (!locked.isEmpty()) {
+                    long start = System.nanoTime();
+                    rebuild.accept(locked);
+                    latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            } catch (Exception e) {
+                failed.increment(keys.size());
+                log.error("缓存重建失败：{}", keys, e);
+            } finally {
+                // 3.释放锁，之后同一个key可以再次提交
+                for (String key : locked) {
+                    unlock(lockKey(key));
+                }
+                pending.removeAll(keys);
+            }
+        }
+
+        @Override
+        public void drop() {
+            pending.removeAll(keys);
+            dropped.increment(keys.size());
+        }
+    }
+
+    private static class SupplyTask<T> implements Task {
+        private final Supplier<T> supplier;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private SupplyTask(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void drop() {
+            future.completeExceptionally(new RejectedExecutionException("缓存重建队列已满"));
+        }
+    }
+}
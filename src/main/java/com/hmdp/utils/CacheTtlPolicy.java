@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一个key前缀的过期策略（hmdp.cache.ttl），防止缓存雪崩
+ * <p>
+ * 1.有效期随机化：实际有效期 = TTL × (1 + [0, jitter)的随机数)，同一批写入的key不会在同一时刻过期<br>
+ * 2.提前刷新（XFetch）：读到剩余有效期为remaining的缓存时，若 delta × beta × (-ln(随机数)) >= remaining，
+ * 则由这个请求触发提前重建。delta是本节点测得的重建耗时（查库耗时的滑动平均），
+ * 越临近过期、重建越慢，触发的概率越大；离过期较远时几乎不会触发。
+ */
+public class CacheTtlPolicy {
+
+    //没有配置的前缀：不随机化、不提前刷新
+    public static final CacheTtlPolicy NONE = new CacheTtlPolicy(0, false, 1);
+
+    private final double jitter;
+    private final boolean earlyRefresh;
+    private final double beta;
+    //重建耗时的滑动平均（毫秒），0代表还没有测到
+    private volatile double delta;
+
+    public CacheTtlPolicy(double jitter, boolean earlyRefresh, double beta) {
+        this.jitter = jitter;
+        this.earlyRefresh = earlyRefresh;
+        this.beta = beta;
+    }
+
+    /**
+     * 随机化之后的有效期（毫秒）
+     */
+    public long jitter(long millis) {
+        if (jitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    public boolean isEarlyRefresh() {
+        return earlyRefresh;
+    }
+
+    /**
+     * @param remainingMillis 剩余有效期（毫秒），小于0代表没有过期时间或key不存在
+     * @return 这次读取是否需要提前重建
+     */
+    public boolean shouldRefreshEarly(long remainingMillis) {
+        double d = delta;
+        if (!earlyRefresh || remainingMillis < 0 || d <= 0) {
+            return false;
+        }
+        return d * beta * -Math.log(ThreadLocalRandom.current().nextDouble()) >= remainingMillis;
+    }
+
+    /**
+     * 记录一次重建（查库）的耗时
+     */
+    public void recordRebuild(double costMillis) {
+        double d = delta;
+        // 并发更新时丢失个别样本不影响结果
+        delta = d <= 0 ? costMillis : d * 0.8 + costMillis * 0.2;
+    }
+}
@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.jmx.annotation.JmxEndpoint;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 缓存预热（hmdp.cache.warm）：启动时以及按需（JMX：org.springframework.boot:type=Endpoint,name=Cachewarm 的warm操作）把配置的表写入缓存
+ * <p>
+ * 1.按热度（order-by，例如销量）顺序用数据库游标流式读取，不把整张表读进内存<br>
+ * 2.每batch-size条用一次pipeline批量写入<br>
+ * 3.启动时在ApplicationRunner中等待每张表最热的top-n条写完（最多warm-ready-timeout-ms），
+ * Runner执行完之后Spring Boot才把readiness改为ACCEPTING_TRAFFIC，新节点不会带着空缓存接收流量；剩余数据在后台继续写入<br>
+ * 4.进度：同一JMX MBean的progress操作<br>
+ * 按需预热会全表扫描，只通过JMX暴露，不走HTTP（/actuator/**不经过登录拦截）
+ */
+@Slf4j
+@Component
+@JmxEndpoint(id = "cachewarm")
+public class CacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private CacheClientProperties properties;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private DataSource dataSource;
+    @Resource
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    //流式读取用的JdbcTemplate
+    private JdbcTemplate streamingJdbcTemplate;
+    private final AtomicBoolean running = new AtomicBoolean();
+    //key前缀 -> 进度
+    private final Map<String, Progress> progress = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        // MySQL驱动在fetchSize为Integer.MIN_VALUE时逐行流式返回结果
+        streamingJdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    /**
+     * 启动预热：等热点数据写完再返回
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (properties.getWarm().isEmpty() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            warmAll().get(properties.getWarmReadyTimeoutMs(), TimeUnit.MILLISECONDS);
+            log.info("热点缓存预热完成，开始接收流量");
+        } catch (TimeoutException e) {
+            log.warn("热点缓存预热超过{}ms，照常启动，剩余数据继续在后台预热", properties.getWarmReadyTimeoutMs());
+        } catch (ExecutionException e) {
+            log.error("热点缓存预热失败，照常启动", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @ReadOperation
+    public Map<String, Progress> progress() {
+        return progress;
+    }
+
+    /**
+     * 按需预热（例如Redis被清空后）：热点数据写完之前readiness为REFUSING_TRAFFIC
+     */
+    @WriteOperation
+    public String warm() {
+        if (properties.getWarm().isEmpty()) {
+            return "没有配置预热数据";
+        }
+        if (!running.compareAndSet(false, true)) {
+            return "预热正在进行中";
+        }
+        AvailabilityChangeEvent.publish(applicationEventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        warmAll().whenComplete((v, e) ->
+                AvailabilityChangeEvent.publish(applicationEventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC));
+        return "开始预热";
+    }
+
+    /**
+     * 每张表一个线程预热
+     * @return 所有表的热点数据写完时完成
+     */
+    private CompletableFuture<Void> warmAll() {
+        List<CompletableFuture<Void>> hots = new ArrayList<>();
+        List<CompletableFuture<Void>> dones = new ArrayList<>();
+        for (CacheClientProperties.Warm config : properties.getWarm()) {
+            Progress p = new Progress();
+            progress.put(config.getPrefix(), p);
+            CompletableFuture<Void> hot = new CompletableFuture<>();
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            hots.add(hot);
+            dones.add(done);
+            Thread thread = new Thread(() -> {
+                try {
+                    warm(config, p, hot);
+                } finally {
+                    done.complete(null);
+                }
+            }, "cache-warmer-" + config.getTable());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        CompletableFuture.allOf(dones.toArray(new CompletableFuture[0])).whenComplete((v, e) -> running.set(false));
+        return CompletableFuture.allOf(hots.toArray(new CompletableFuture[0]));
+    }
+
+    private void warm(CacheClientProperties.Warm config, Progress p, CompletableFuture<Void> hot) {
+        p.setState("RUNNING");
+        p.setStartTime(LocalDateTime.now());
+        try {
+            p.setTotal(streamingJdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + config.getTable(), Long.class));
+            RowMapper<?> rowMapper = BeanPropertyRowMapper.newInstance(config.getEntity());
+            Map<Object, Object> batch = new LinkedHashMap<>(config.getBatchSize() * 2);
+            // 1.按热度顺序流式读取
+            streamingJdbcTemplate.query("SELECT * FROM " + config.getTable() + " ORDER BY " + config.getOrderBy(), (RowCallbackHandler) rs -> {
+                batch.put(rs.getObject("id"), rowMapper.mapRow(rs, rs.getRow()));
+                // 2.攒够一批，pipeline写入
+                if (batch.size() >= config.getBatchSize()) {
+                    flush(config, batch, p, hot);
+                }
+            });
+            flush(config, batch, p, hot);
+            // 3.数据不足top-n条
+            hot.complete(null);
+            p.setState("DONE");
+            log.info("缓存{}预热完成，{}条，耗时{}ms", config.getPrefix(), p.getWarmed(),
+                    Duration.between(p.getStartTime(), LocalDateTime.now()).toMillis());
+        } catch (Exception e) {
+            p.setState("FAILED");
+            hot.completeExceptionally(e);
+            log.error("缓存{}预热失败，已写入{}条", config.getPrefix(), p.getWarmed(), e);
+        } finally {
+            p.setEndTime(LocalDateTime.now());
+        }
+    }
+
+    private void flush(CacheClientProperties.Warm config, Map<Object, Object> batch, Progress p, CompletableFuture<Void> hot) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (config.isLogicalExpire()) {
+            cacheClient.setAllWithLogicalExpire(config.getPrefix(), batch, config.getTtlSeconds(), TimeUnit.SECONDS);
+        } else {
+            cacheClient.setAll(config.getPrefix(), batch, config.getTtlSeconds(), TimeUnit.SECONDS);
+        }
+        p.setWarmed(p.getWarmed() + batch.size());
+        batch.clear();
+        if (p.getWarmed() >= config.getTopN() && hot.complete(null)) {
+            log.info("缓存{}前{}条热点数据预热完成", config.getPrefix(), config.getTopN());
+        }
+        log.debug("缓存{}预热进度：{}/{}", config.getPrefix(), p.getWarmed(), p.getTotal());
+    }
+
+    @Data
+    public static class Progress {
+        //RUNNING、DONE、FAILED
+        private volatile String state;
+        private volatile Long total;
+        private volatile long warmed;
+        private volatile LocalDateTime startTime;
+        private volatile LocalDateTime endTime;
+    }
+}
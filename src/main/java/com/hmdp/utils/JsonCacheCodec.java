@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * JSON编码（原来的格式）：普通值直接转JSON，逻辑过期数据包装成RedisData
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public boolean canDecode(byte[] raw) {
+        return raw.length > 0 && (raw[0] & 0x80) == 0;
+    }
+
+    @Override
+    public boolean canEncode(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] raw, Class<T> type) {
+        return JSONUtil.toBean(new String(raw, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(Object value, LocalDateTime expireTime) {
+        return encode(new RedisData(expireTime, value));
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] raw, Class<?> type) {
+        // 先解析成RedisData，data再转成目标类型
+        RedisData redisData = JSONUtil.toBean(new String(raw, StandardCharsets.UTF_8), RedisData.class);
+        if (redisData.getData() != null) {
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        }
+        return redisData;
+    }
+}
@@ -1,11 +1,11 @@
 package com.hmdp.utils;
 
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-public class LoginInterceptor implements HandlerInterceptor {//ctrl+i显示实现方法
+public class LoginInterceptor implements AsyncHandlerInterceptor {//ctrl+i显示实现方法
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
@@ -24,4 +24,10 @@ public class LoginInterceptor implements HandlerInterceptor {//ctrl+i显示实
         // 移除用户
         UserHolder.removeUser();
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步处理开始后请求线程直接归还线程池，不会执行afterCompletion，需要在这里移除用户
+        UserHolder.removeUser();
+    }
 }
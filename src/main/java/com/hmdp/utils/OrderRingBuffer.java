@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀订单环形缓冲（单生产者、单消费者）
+ * <p>
+ * 参考Disruptor：启动时一次性分配好槽位，每个槽位只保存基本类型 (orderId, userId, voucherId)
+ * 以及对应的Stream分片序号、消息id（毫秒时间戳、序号）和入队时间，入队出队不创建对象；写满时offer返回false，由调用方决定等待还是拒绝。
+ */
+public class OrderRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final long[] orderIds;
+    private final long[] userIds;
+    private final long[] voucherIds;
+    private final int[] shards;
+    private final long[] recordMillis;
+    private final long[] recordSequences;
+    //进入缓冲的时间，用于计算积压时长（XCLAIM重投的消息id时间戳可能很旧，不能用来衡量积压）
+    private final long[] enqueueMillis;
+    //下一个读取位置（只由消费者推进）
+    private final AtomicLong head = new AtomicLong();
+    //下一个写入位置（只由生产者推进）
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整为2的幂
+     */
+    public OrderRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.orderIds = new long[size];
+        this.userIds = new long[size];
+        this.voucherIds = new long[size];
+        this.shards = new int[size];
+        this.recordMillis = new long[size];
+        this.recordSequences = new long[size];
+        this.enqueueMillis = new long[size];
+    }
+
+    /**
+     * 写入一个订单（仅生产者线程调用）
+     * @return false代表缓冲已满
+     */
+    public boolean offer(long orderId, long userId, long voucherId, int shard, long recordMilli, long recordSequence) {
+        long t = tail.get();
+        if (t - head.get() >= capacity) {
+            return false;
+        }
+        int i = (int) (t & mask);
+        orderIds[i] = orderId;
+        userIds[i] = userId;
+        voucherIds[i] = voucherId;
+        shards[i] = shard;
+        recordMillis[i] = recordMilli;
+        recordSequences[i] = recordSequence;
+        enqueueMillis[i] = System.currentTimeMillis();
+        //发布：槽位写完后再推进tail，消费者看到tail时槽位数据一定可见
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * 批量取出订单（仅消费者线程调用）
+     * @param batch 接收订单的批次
+     * @return 取出的数量
+     */
+    public int drainTo(Batch batch) {
+        long h = head.get();
+        int n = (int) Math.min(tail.get() - h, batch.capacity());
+        for (int k = 0; k < n; k++) {
+            int i = (int) ((h + k) & mask);
+            batch.orderIds[k] = orderIds[i];
+            batch.userIds[k] = userIds[i];
+            batch.voucherIds[k] = voucherIds[i];
+            batch.shards[k] = shards[i];
+            batch.recordMillis[k] = recordMillis[i];
+            batch.recordSequences[k] = recordSequences[i];
+        }
+        batch.size = n;
+        //槽位复制完再释放给生产者
+        head.lazySet(h + n);
+        return n;
+    }
+
+    /**
+     * 当前积压的订单数
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 最早一个积压订单进入缓冲的时间（毫秒），没有积压返回0
+     */
+    public long oldestEnqueueMillis() {
+        long h = head.get();
+        if (tail.get() == h) {
+            return 0;
+        }
+        return enqueueMillis[(int) (h & mask)];
+    }
+
+    /**
+     * 消费者复用的批次，同样只保存基本类型
+     */
+    public static class Batch {
+        private final long[] orderIds;
+        private final long[] userIds;
+        private final long[] voucherIds;
+        private final int[] shards;
+        private final long[] recordMillis;
+        private final long[] recordSequences;
+        private int size;
+
+        public Batch(int capacity) {
+            this.orderIds = new long[capacity];
+            this.userIds = new long[capacity];
+            this.voucherIds = new long[capacity];
+            this.shards = new int[capacity];
+            this.recordMillis = new long[capacity];
+            this.recordSequences = new long[capacity];
+        }
+
+        public int capacity() {
+            return orderIds.length;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long orderId(int i) {
+            return orderIds[i];
+        }
+
+        public long userId(int i) {
+            return userIds[i];
+        }
+
+        public long voucherId(int i) {
+            return voucherIds[i];
+        }
+
+        /**
+         * 订单所在的Stream分片序号
+         */
+        public int shard(int i) {
+            return shards[i];
+        }
+
+        public long recordMillis(int i) {
+            return recordMillis[i];
+        }
+
+        public long recordSequence(int i) {
+            return recordSequences[i];
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private TokenBucketRateLimiter rateLimiter;
+
+    public RateLimitInterceptor(TokenBucketRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1.本地令牌桶判断，有令牌放行（异步处理完成后的再次分派已经计过数）
+        if (request.getDispatcherType() == DispatcherType.ASYNC || rateLimiter.tryAcquire(request)) {
+            return true;
+        }
+        //2.没有令牌，直接拒绝（不会执行后面的拦截器、秒杀脚本和数据库查询），返回429状态码
+        response.setStatus(429);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试")));
+        return false;
+    }
+}
@@ -6,15 +6,38 @@ public class RedisConstants {
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
 
+    public static final String CACHE_KEY_PREFIX = "cache:";
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String CACHE_BLOOM_CHANNEL = "cache:bloom";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shopType:version";
+    public static final String CACHE_SHOP_TYPE_CHANNEL = "cache:shopType";
+
+    public static final String LOCK_KEY_PREFIX = "lock:";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_BUCKETS_KEY = "seckill:buckets:";
+    public static final String SECKILL_STOCK_DELTA_KEY = "seckill:stock:delta";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_DLQ_SUFFIX = ".dlq";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_RESET_CHANNEL = "seckill:reset";
+    public static final String SECKILL_ARMED_KEY = "seckill:armed:";
+    public static final String SECKILL_STATUS_KEY = "seckill:status:";
+    public static final Long SECKILL_STATUS_TTL = 1440L;
+    public static final String SECKILL_RESULT_CHANNEL = "seckill:result";
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -1,12 +1,25 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component//标记为一个 Spring Bean
 public class RedisIdWorker {
     //开始时间戳
@@ -20,25 +33,186 @@ public class RedisIdWorker {
 
     //序列号的位数
     private static final int COUNT_BITS = 32;
+    //日期格式只创建一次（线程安全）
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    private static final long SECONDS_PER_DAY = 86400L;
+    //号段异步预取线程
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "id-segment-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
     private StringRedisTemplate stringRedisTemplate;
+    //redis：每个id一次INCR；segment：每次INCRBY租用一段序列号，在本地发号；snowflake：本地雪花算法
+    private final boolean segmentMode;
+    private final SnowflakeIdGenerator snowflake;
+    //号段长度
+    private final int segmentStep;
+    //当前号段剩余不足该数量时异步预取下一段
+    private final long refillThreshold;
+    //当天的日期key缓存，避免每次格式化
+    private volatile DayKey dayKey;
+    //每个业务前缀的号段
+    private final Map<String, SegmentBuffer> segments = new ConcurrentHashMap<>();
+    //时钟，时间戳和日期按clock所在时区的本地时间计算
+    private final Clock clock;
+
+    @Autowired
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.mode:redis}") String mode,
+                         @Value("${hmdp.id.segment-step:1000}") int segmentStep,
+                         @Value("${hmdp.id.worker-lease-seconds:60}") long workerLeaseSeconds) {
+        this(stringRedisTemplate, mode, segmentStep, workerLeaseSeconds, Clock.systemDefaultZone());
+    }
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, String mode, int segmentStep,
+                         long workerLeaseSeconds, Clock clock) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.clock = clock;
+        this.segmentMode = "segment".equalsIgnoreCase(mode);
+        this.snowflake = "snowflake".equalsIgnoreCase(mode)
+                ? new SnowflakeIdGenerator(stringRedisTemplate, BEGIN_TIMESTAMP, workerLeaseSeconds, clock)
+                : null;
+        this.segmentStep = Math.max(1, segmentStep);
+        this.refillThreshold = Math.max(1, this.segmentStep / 5);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (snowflake != null) {
+            //启动时租用workerId，之后发号不再访问Redis
+            snowflake.start();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (snowflake != null) {
+            snowflake.stop();
+        }
     }
 
     public long nextId(String keyPrefix){
+        if (snowflake != null) {
+            return snowflake.nextId();
+        }
         //1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = LocalDateTime.now(clock).toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         //2.生成序列号
         //2.1 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:"+keyPrefix+":"+date);//increment自增
+        String date = date(nowSecond);
+        //2.2自增长（号段模式从本地号段取）
+        long count = segmentMode
+                ? nextFromSegment(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment("icr:"+keyPrefix+":"+date);//increment自增
 
         //3.拼接并返回
         return timestamp << COUNT_BITS | count;//时间戳向左移动32位后拼接上序列号
     }
+
+    private String date(long nowSecond) {
+        long day = nowSecond / SECONDS_PER_DAY;
+        DayKey current = dayKey;
+        if (current == null || current.day != day) {
+            //跨天了才重新格式化
+            String date = LocalDateTime.ofEpochSecond(nowSecond, 0, ZoneOffset.UTC).format(DATE_FORMATTER);
+            current = new DayKey(day, date);
+            dayKey = current;
+        }
+        return current.date;
+    }
+
+    private long nextFromSegment(String keyPrefix, String date) {
+        SegmentBuffer buffer = segments.get(keyPrefix);
+        if (buffer == null || !buffer.date.equals(date)) {
+            //跨天后序列号key换了，号段重新开始
+            SegmentBuffer fresh = new SegmentBuffer("icr:" + keyPrefix + ":" + date, date);
+            buffer = segments.merge(keyPrefix, fresh, (old, n) -> old.date.equals(n.date) ? old : n);
+        }
+        while (true) {
+            Segment current = buffer.current;
+            if (current != null) {
+                long value = current.cursor.getAndIncrement();
+                if (value <= current.max) {
+                    //1.剩余不多时异步预取下一段
+                    if (current.max - value < refillThreshold) {
+                        prefetch(buffer);
+                    }
+                    return value;
+                }
+            }
+            //2.号段用完，切换到预取好的下一段（没有就同步租用）
+            synchronized (buffer) {
+                if (buffer.current == current) {
+                    Segment next = buffer.next;
+                    buffer.next = null;
+                    buffer.current = next != null ? next : lease(buffer.key);
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer) {
+        if (buffer.next != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        SEGMENT_LOADER.submit(() -> {
+            try {
+                Segment next = lease(buffer.key);
+                synchronized (buffer) {
+                    if (buffer.next == null) {
+                        buffer.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("预取号段失败，号段用完时同步获取：{}", e.getMessage());
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 租用一段序列号 INCRBY icr:prefix:date step，得到 (max - step, max]
+     */
+    private Segment lease(String key) {
+        Long max = stringRedisTemplate.opsForValue().increment(key, segmentStep);
+        return new Segment(max - segmentStep + 1, max);
+    }
+
+    private static class DayKey {
+        private final long day;
+        private final String date;
+
+        private DayKey(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    private static class SegmentBuffer {
+        private final String key;
+        private final String date;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        private SegmentBuffer(String key, String date) {
+            this.key = key;
+            this.date = date;
+        }
+    }
+
+    private static class Segment {
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Segment(long min, long max) {
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
 }
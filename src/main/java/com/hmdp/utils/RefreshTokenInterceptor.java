@@ -4,14 +4,18 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {//ctrl+i显示实现方法
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {//ctrl+i显示实现方法
+
+    //请求属性：保存本次请求的用户，异步处理完成后再次分派时直接恢复
+    private static final String USER_ATTRIBUTE = RefreshTokenInterceptor.class.getName() + ".user";
 
     private StringRedisTemplate stringRedisTemplate;
 
@@ -21,6 +25,14 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {//ctrl+i显
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //0.异步处理完成后的再次分派：恢复首次分派时查到的用户，不再查询Redis
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            Object user = request.getAttribute(USER_ATTRIBUTE);
+            if (user != null) {
+                UserHolder.saveUser((UserDTO) user);
+            }
+            return true;
+        }
         //1.获取session
         //HttpSession session = request.getSession();
         //1.获取请求头中的token
@@ -41,6 +53,7 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {//ctrl+i显
         UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         //6.存在，保存用户信息到ThreadLocal（保存到线程，无需key）
         UserHolder.saveUser(userDTO);
+        request.setAttribute(USER_ATTRIBUTE, userDTO);
         //7.刷新token有效期
         stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         //8.放行
@@ -52,4 +65,10 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {//ctrl+i显
         // 移除用户
         UserHolder.removeUser();
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步处理开始，请求线程归还线程池前移除用户，避免串到下一个请求
+        UserHolder.removeUser();
+    }
 }
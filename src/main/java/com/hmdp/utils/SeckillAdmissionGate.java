@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKETS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESET_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀本地准入：在执行seckill.lua之前，用JVM内的状态拦截注定失败的请求
+ * <p>
+ * 1.秒杀时间窗口（缓存tb_seckill_voucher的begin_time/end_time，以及库存分桶数）<br>
+ * 2.已售罄标记（lua返回1时设置，并通过pub/sub广播给其它节点；到秒杀结束时间失效，补库存后由resetAll在所有节点清除）<br>
+ * 3.短期的"已购买"过滤（lua返回0或2时记录）<br>
+ * 秒杀开始前由SeckillPreWarmer预热（arm），时间窗口固定到秒杀结束
+ */
+@Slf4j
+@Component
+public class SeckillAdmissionGate implements MessageListener {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //秒杀时间窗口的本地缓存时长
+    @Value("${hmdp.seckill.gate.window-ttl-ms:60000}")
+    private long windowTtlMillis;
+    //已购买用户过滤的容量、有效期
+    @Value("${hmdp.seckill.gate.buyer-capacity:100000}")
+    private int buyerCapacity;
+    @Value("${hmdp.seckill.gate.buyer-ttl-ms:600000}")
+    private long buyerTtlMillis;
+
+    private final Map<Long, SaleWindow> windows = new ConcurrentHashMap<>();
+    //已售罄的优惠券 -> 标记失效时间（秒杀结束时间，毫秒）
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+    private LRUCache<String, Boolean> buyers;
+
+    @PostConstruct
+    private void init() {
+        buyers = CacheUtil.newLRUCache(buyerCapacity, buyerTtlMillis);
+        //订阅其它节点的售罄广播、本地状态清除广播
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESET_CHANNEL));
+    }
+
+    /**
+     * 本地准入判断
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return null代表放行；否则为拒绝原因
+     */
+    public String check(Long voucherId, Long userId) {
+        //1.已售罄（秒杀结束后标记失效，同一张券不会一直占着内存）
+        Long until = soldOut.get(voucherId);
+        if (until != null) {
+            if (System.currentTimeMillis() < until) {
+                return "库存不足";
+            }
+            soldOut.remove(voucherId, until);
+        }
+        //2.秒杀时间
+        SaleWindow window = getWindow(voucherId);
+        if (window.beginTime == null) {
+            return "秒杀券不存在";
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (window.beginTime.isAfter(now)) {
+            return "秒杀尚未开始";
+        }
+        if (window.endTime.isBefore(now)) {
+            return "秒杀已经结束";
+        }
+        //3.近期已经抢到过
+        if (buyers.get(buyerKey(voucherId, userId), false) != null) {
+            return "不能重复下单";
+        }
+        return null;
+    }
+
+    /**
+     * 优惠券的库存分桶数（随时间窗口一起缓存）
+     */
+    public int buckets(Long voucherId) {
+        return getWindow(voucherId).buckets;
+    }
+
+    /**
+     * 记录用户已购买（lua返回0或2）
+     */
+    public void markBought(Long voucherId, Long userId) {
+        buyers.put(buyerKey(voucherId, userId), Boolean.TRUE);
+    }
+
+    /**
+     * 标记已售罄（lua返回1），并通知其它节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.putIfAbsent(voucherId, soldOutUntil(voucherId)) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 秒杀即将开始：直接写入时间窗口并固定到秒杀结束，开抢时不再因缓存过期回源数据库
+     */
+    public void arm(SeckillVoucher voucher) {
+        String buckets = stringRedisTemplate.opsForValue().get(SECKILL_BUCKETS_KEY + voucher.getVoucherId());
+        windows.put(voucher.getVoucherId(), new SaleWindow(voucher.getBeginTime(), voucher.getEndTime(),
+                buckets == null ? 1 : Integer.parseInt(buckets), System.currentTimeMillis(), true));
+    }
+
+    /**
+     * 清除优惠券的本地状态（库存重新写入、时间调整后调用）
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        windows.remove(voucherId);
+    }
+
+    /**
+     * 清除所有节点上优惠券的本地状态：新增秒杀券（清掉缓存的"不存在"）、补齐库存后调用
+     */
+    public void resetAll(Long voucherId) {
+        reset(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESET_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (SECKILL_RESET_CHANNEL.equals(new String(message.getChannel(), StandardCharsets.UTF_8))) {
+                reset(voucherId);
+                return;
+            }
+            soldOut.put(voucherId, soldOutUntil(voucherId));
+        } catch (NumberFormatException e) {
+            log.warn("无效的秒杀广播消息：{}", message);
+        }
+    }
+
+    /**
+     * 售罄标记的失效时间：秒杀结束时间；券不存在时按时间窗口的缓存时长
+     */
+    private long soldOutUntil(Long voucherId) {
+        SaleWindow window = getWindow(voucherId);
+        if (window.endTime == null) {
+            return System.currentTimeMillis() + windowTtlMillis;
+        }
+        return window.endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private SaleWindow getWindow(Long voucherId) {
+        SaleWindow window = windows.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (window != null && (window.armed
+                ? !window.endTime.isBefore(LocalDateTime.now())
+                : now - window.loadTime < windowTtlMillis)) {
+            return window;
+        }
+        //缓存过期或不存在，查询数据库（不存在的券也缓存，避免反复查库）
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            window = new SaleWindow(null, null, 1, now, false);
+        } else {
+            String buckets = stringRedisTemplate.opsForValue().get(SECKILL_BUCKETS_KEY + voucherId);
+            window = new SaleWindow(voucher.getBeginTime(), voucher.getEndTime(),
+                    buckets == null ? 1 : Integer.parseInt(buckets), now, false);
+        }
+        windows.put(voucherId, window);
+        return window;
+    }
+
+    private static String buyerKey(Long voucherId, Long userId) {
+        return voucherId + ":" + userId;
+    }
+
+    private static class SaleWindow {
+        private final LocalDateTime beginTime;
+        private final LocalDateTime endTime;
+        private final int buckets;
+        private final long loadTime;
+        //已预热：秒杀结束前一直有效
+        private final boolean armed;
+
+        private SaleWindow(LocalDateTime beginTime, LocalDateTime endTime, int buckets, long loadTime, boolean armed) {
+            this.beginTime = beginTime;
+            this.endTime = endTime;
+            this.buckets = buckets;
+            this.loadTime = loadTime;
+            this.armed = armed;
+        }
+    }
+}
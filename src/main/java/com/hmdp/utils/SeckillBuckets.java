@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_SUFFIX;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存分桶
+ * <p>
+ * 热门券的库存拆到多个子桶，每个桶有自己的库存key、下单用户set和订单Stream，三个key用同一个hash tag保证在同一个slot
+ * （seckill.lua一次调用只访问一个slot，Redis Cluster下不会CROSSSLOT），不同桶分散到不同slot。
+ * 用户按id哈希到"主桶"，主桶卖完后依次尝试后面的桶。<br>
+ * 只有1个桶时hash tag为{voucherId}，分桶时为{voucherId:bucket}，例如 seckill:stock:{10:3}、stream.orders{10:3}。
+ */
+public class SeckillBuckets {
+
+    private SeckillBuckets() {
+    }
+
+    /**
+     * 一个桶的所有key共用的hash tag
+     */
+    public static String tag(Long voucherId, int bucket, int buckets) {
+        return buckets <= 1 ? "{" + voucherId + "}" : "{" + voucherId + ":" + bucket + "}";
+    }
+
+    public static String stockKey(Long voucherId, int bucket, int buckets) {
+        return SECKILL_STOCK_KEY + tag(voucherId, bucket, buckets);
+    }
+
+    public static String orderKey(Long voucherId, int bucket, int buckets) {
+        return SECKILL_ORDER_KEY + tag(voucherId, bucket, buckets);
+    }
+
+    /**
+     * 桶的订单Stream（消息队列分片）
+     */
+    public static String streamKey(Long voucherId, int bucket, int buckets) {
+        return SECKILL_ORDER_STREAM + tag(voucherId, bucket, buckets);
+    }
+
+    /**
+     * 订单Stream对应的死信队列，hash tag相同
+     */
+    public static String deadLetterKey(String streamKey) {
+        return streamKey + SECKILL_ORDER_DLQ_SUFFIX;
+    }
+
+    /**
+     * 从桶的key（例如订单Stream）中取出hash tag，据此找到同一个桶的其它key；没有hash tag（旧的单队列）返回null
+     */
+    public static String tagOf(String key) {
+        int start = key.indexOf('{');
+        int end = key.indexOf('}', start + 1);
+        return start < 0 || end < 0 ? null : key.substring(start, end + 1);
+    }
+
+    /**
+     * hash tag所属的优惠券id
+     */
+    public static Long voucherIdOf(String tag) {
+        int end = tag.indexOf(':');
+        return Long.valueOf(tag.substring(1, end < 0 ? tag.length() - 1 : end));
+    }
+
+    /**
+     * 用户的主桶
+     */
+    public static int homeBucket(Long userId, int buckets) {
+        if (buckets <= 1) {
+            return 0;
+        }
+        // 打散连续的用户id
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % buckets);
+    }
+
+    /**
+     * 第bucket个桶分到的库存，余数分给前面的桶
+     */
+    public static int bucketStock(int stock, int bucket, int buckets) {
+        return stock / buckets + (bucket < stock % buckets ? 1 : 0);
+    }
+}
@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_TTL;
+
+/**
+ * 秒杀订单状态：seckill:status:{orderId}记录QUEUED/CREATED/FAILED
+ * <p>
+ * 1.seckill.lua入队成功后由seckill_status.lua写QUEUED（不覆盖已有结果）；下单线程落库后写CREATED或FAILED，并发布到seckill:result频道<br>
+ * 2.本节点只订阅一次结果频道，再分发给等待该订单的SSE连接，不为每个客户端单独占用Redis连接
+ */
+@Slf4j
+@Component
+public class SeckillOrderNotifier implements MessageListener {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //SSE连接最长等待时间
+    @Value("${hmdp.seckill.order.sse-timeout-ms:30000}")
+    private long sseTimeoutMillis;
+
+    //订单id -> 等待结果的SSE连接
+    private final Map<Long, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESULT_CHANNEL));
+    }
+
+    public static boolean isFinal(String status) {
+        return CREATED.equals(status) || FAILED.equals(status);
+    }
+
+    /**
+     * 查询订单状态记录
+     * @return status、userId、voucherId；不存在或已过期时为空
+     */
+    public Map<Object, Object> status(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(SECKILL_STATUS_KEY + orderId);
+    }
+
+    /**
+     * 发布一批订单的落库结果
+     * @param orders 本批订单
+     * @param rejected 未能创建的订单id
+     */
+    public void publish(List<VoucherOrder> orders, Collection<Long> rejected) {
+        Map<Long, String> results = new LinkedHashMap<>(orders.size() * 2);
+        for (VoucherOrder order : orders) {
+            results.put(order.getId(), rejected.contains(order.getId()) ? FAILED : CREATED);
+        }
+        publish(results);
+    }
+
+    public void publish(Long orderId, String status) {
+        publish(Collections.singletonMap(orderId, status));
+    }
+
+    private void publish(Map<Long, String> results) {
+        // 结果通知失败不影响订单本身，客户端仍可以轮询状态接口
+        try {
+            long ttl = TimeUnit.MINUTES.toSeconds(SECKILL_STATUS_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map.Entry<Long, String> entry : results.entrySet()) {
+                    String key = SECKILL_STATUS_KEY + entry.getKey();
+                    conn.hSet(key, "status", entry.getValue());
+                    conn.expire(key, ttl);
+                    conn.publish(SECKILL_RESULT_CHANNEL, entry.getKey() + ":" + entry.getValue());
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("发布{}条订单结果失败：{}", results.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 订阅订单的最终结果：先推送当前状态，已是最终状态则直接结束
+     * @param orderId 订单id
+     * @param current 调用方查到的当前状态
+     */
+    public SseEmitter subscribe(Long orderId, String current) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        if (isFinal(current)) {
+            send(emitter, current);
+            return emitter;
+        }
+        // 1.先登记，再复查一次状态，避免结果恰好在两步之间发布而错过
+        emitters.compute(orderId, (id, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(emitter);
+            return set;
+        });
+        Runnable cleanup = () -> remove(orderId, emitter);
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(cleanup);
+        emitter.onError(e -> cleanup.run());
+        try {
+            emitter.send(SseEmitter.event().name("status").data(current));
+        } catch (Exception e) {
+            remove(orderId, emitter);
+            return emitter;
+        }
+        Object status = stringRedisTemplate.opsForHash().get(SECKILL_STATUS_KEY + orderId, "status");
+        if (status != null && isFinal(status.toString())) {
+            deliver(orderId, emitter, status.toString());
+        }
+        return emitter;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息格式 orderId:status
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int i = body.indexOf(':');
+        if (i <= 0) {
+            log.warn("无效的下单结果消息：{}", body);
+            return;
+        }
+        Long orderId;
+        try {
+            orderId = Long.valueOf(body.substring(0, i));
+        } catch (NumberFormatException e) {
+            log.warn("无效的下单结果消息：{}", body);
+            return;
+        }
+        Set<SseEmitter> waiting = emitters.get(orderId);
+        if (waiting == null) {
+            return;
+        }
+        String status = body.substring(i + 1);
+        for (SseEmitter emitter : waiting) {
+            deliver(orderId, emitter, status);
+        }
+    }
+
+    /**
+     * 推送最终结果，谁先把连接从等待集合中移除谁负责推送，保证只推送一次
+     */
+    private void deliver(Long orderId, SseEmitter emitter, String status) {
+        if (remove(orderId, emitter)) {
+            send(emitter, status);
+        }
+    }
+
+    private boolean remove(Long orderId, SseEmitter emitter) {
+        boolean[] removed = new boolean[1];
+        emitters.computeIfPresent(orderId, (id, set) -> {
+            removed[0] = set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+        return removed[0];
+    }
+
+    private static void send(SseEmitter emitter, String status) {
+        try {
+            emitter.send(SseEmitter.event().name("status").data(status));
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀预热：在beginTime之前lead-seconds秒把开抢要用到的数据准备好
+ * <p>
+ * 1.Redis侧（只需一个节点做，抢到seckill:armed:{voucherId}的节点负责）：SCRIPT LOAD秒杀脚本、写入店铺缓存<br>
+ * 2.本地（每个节点各自扫描）：秒杀时间窗口固定到结束、号段预取<br>
+ * 3.库存key（每次扫描都检查，包括已开抢的）：旧版本单桶key迁移到带hash tag的key，Redis数据丢失时按数据库补齐<br>
+ * 开抢的第一秒全部走热路径，不会所有节点同时回源数据库。
+ */
+@Slf4j
+@Component
+public class SeckillPreWarmer {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillAdmissionGate admissionGate;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private SeckillStockSyncer stockSyncer;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    //开抢前多少秒预热
+    @Value("${hmdp.seckill.prewarm.lead-seconds:60}")
+    private long leadSeconds;
+
+    //开抢时执行的脚本，内容与VoucherOrderServiceImpl加载的一致，SHA相同
+    private static final List<DefaultRedisScript<Long>> SCRIPTS = new ArrayList<>();
+    static {
+        for (String location : new String[]{"seckill.lua", "seckill_status.lua", "stream_claim.lua"}) {
+            DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+            script.setLocation(new ClassPathResource(location));
+            script.setResultType(Long.class);
+            SCRIPTS.add(script);
+        }
+    }
+
+    //补齐下单用户集合时每批SADD的数量
+    private static final int MEMBER_BATCH = 1000;
+
+    //本节点已预热的优惠券 -> 秒杀结束时间
+    private final Map<Long, LocalDateTime> armed = new ConcurrentHashMap<>();
+
+    /**
+     * 扫描即将开始（以及正在进行）的秒杀
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.prewarm.scan-interval-ms:5000}")
+    public void scan() {
+        LocalDateTime now = LocalDateTime.now();
+        armed.values().removeIf(endTime -> endTime.isBefore(now));
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .le("begin_time", now.plusSeconds(leadSeconds))
+                .gt("end_time", now)
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            try {
+                // 库存key缺失时脚本返回3（未就绪），每次扫描都检查，尽快补齐
+                ensureStock(voucher);
+                if (!armed.containsKey(voucher.getVoucherId())) {
+                    arm(voucher, now);
+                }
+            } catch (Exception e) {
+                // 下次扫描重试
+                log.error("秒杀券{}预热失败", voucher.getVoucherId(), e);
+            }
+        }
+    }
+
+    private void arm(SeckillVoucher voucher, LocalDateTime now) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.抢armed标记，成功的节点负责Redis侧预热，标记保留到秒杀结束
+        long ttl = Math.max(1, Duration.between(now, voucher.getEndTime()).getSeconds());
+        Boolean first = stringRedisTemplate.opsForValue()
+                .setIfAbsent(SECKILL_ARMED_KEY + voucherId, voucher.getBeginTime().toString(), ttl, TimeUnit.SECONDS);
+        if (BooleanUtil.isTrue(first)) {
+            warmRedis(voucher);
+        }
+        // 2.本地预热：时间窗口固定到秒杀结束
+        admissionGate.arm(voucher);
+        // 3.号段模式下提前租好号段（其它模式只是一次普通发号）
+        redisIdWorker.nextId("order");
+        armed.put(voucherId, voucher.getEndTime());
+        log.info("秒杀券{}已预热，{}开抢", voucherId, voucher.getBeginTime());
+    }
+
+    private void warmRedis(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.lua脚本：提前SCRIPT LOAD，开抢时EVALSHA直接命中，不会先收到NOSCRIPT再EVAL全文
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            for (DefaultRedisScript<Long> script : SCRIPTS) {
+                connection.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        // 2.店铺缓存（逻辑过期）
+        Voucher v = voucherService.getById(voucherId);
+        if (v != null && v.getShopId() != null) {
+            shopService.saveShop2Redis(v.getShopId(), TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL));
+        }
+    }
+
+    /**
+     * 补齐缺失的库存key（SETNX，多个节点同时执行也只写入一次）
+     * <p>
+     * 1.旧版本单桶的key（seckill:stock:10、seckill:order:10）迁移到带hash tag的key（seckill:stock:{10}、seckill:order:{10}）<br>
+     * 2.这张券所有桶的库存key都不存在（例如Redis被清空）：按数据库库存减去未刷回的扣减补齐，下单用户按数据库订单恢复<br>
+     * 先补下单用户再写库存：库存key写入之前脚本返回3，不会有用户在集合补齐之前重复抢到
+     */
+    private void ensureStock(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_BUCKETS_KEY + voucherId);
+        int buckets = value == null ? 1 : Integer.parseInt(value);
+        int missing = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(SeckillBuckets.stockKey(voucherId, i, buckets)))) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            return;
+        }
+        if (missing < buckets) {
+            // 只丢了部分桶，无法知道各桶剩余多少，这些桶一直返回3，用户会尝试其它桶
+            log.error("秒杀券{}有{}个桶的库存key缺失，需要人工核对", voucherId, missing);
+            return;
+        }
+        // 1.旧版本的单桶key：key不在同一个slot，不能RENAME，逐个复制后删除
+        String legacyStockKey = SECKILL_STOCK_KEY + voucherId;
+        String legacyOrderKey = SECKILL_ORDER_KEY + voucherId;
+        String legacyStock = buckets == 1 ? stringRedisTemplate.opsForValue().get(legacyStockKey) : null;
+        if (legacyStock != null) {
+            String orderKey = SeckillBuckets.orderKey(voucherId, 0, 1);
+            List<String> members = new ArrayList<>(MEMBER_BATCH);
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                    .scan(legacyOrderKey, ScanOptions.scanOptions().count(MEMBER_BATCH).build())) {
+                while (cursor.hasNext()) {
+                    members.add(cursor.next());
+                    if (members.size() == MEMBER_BATCH) {
+                        addMembers(orderKey, members);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            addMembers(orderKey, members);
+            stringRedisTemplate.opsForValue().setIfAbsent(SeckillBuckets.stockKey(voucherId, 0, 1), legacyStock);
+            stringRedisTemplate.delete(Arrays.asList(legacyStockKey, legacyOrderKey));
+            admissionGate.resetAll(voucherId);
+            log.info("秒杀券{}的库存key已迁移到{}，剩余库存{}", voucherId, SeckillBuckets.stockKey(voucherId, 0, 1), legacyStock);
+            return;
+        }
+        // 2.按数据库恢复：已下单用户放回各自主桶的集合（脚本从主桶开始判断重复），剩余库存按桶拆分
+        List<Object> userIds = voucherOrderMapper.selectObjs(
+                new QueryWrapper<VoucherOrder>().select("user_id").eq("voucher_id", voucherId));
+        List<List<String>> bucketMembers = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            bucketMembers.add(new ArrayList<>());
+        }
+        for (Object userId : userIds) {
+            Long id = Long.valueOf(userId.toString());
+            bucketMembers.get(SeckillBuckets.homeBucket(id, buckets)).add(id.toString());
+        }
+        int stock = Math.max(0, voucher.getStock() - stockSyncer.pending(voucherId));
+        for (int i = 0; i < buckets; i++) {
+            String orderKey = SeckillBuckets.orderKey(voucherId, i, buckets);
+            List<String> members = bucketMembers.get(i);
+            for (int from = 0; from < members.size(); from += MEMBER_BATCH) {
+                stringRedisTemplate.opsForSet().add(orderKey,
+                        members.subList(from, Math.min(members.size(), from + MEMBER_BATCH)).toArray(new String[0]));
+            }
+        }
+        for (int i = 0; i < buckets; i++) {
+            stringRedisTemplate.opsForValue().setIfAbsent(
+                    SeckillBuckets.stockKey(voucherId, i, buckets),
+                    String.valueOf(SeckillBuckets.bucketStock(stock, i, buckets)));
+        }
+        // 3.清除各节点在库存key缺失期间可能留下的售罄标记
+        admissionGate.resetAll(voucherId);
+        log.warn("秒杀券{}的库存key缺失，已按数据库补齐：剩余库存{}，已下单用户{}", voucherId, stock, userIds.size());
+    }
+
+    private void addMembers(String key, List<String> members) {
+        if (!members.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(key, members.toArray(new String[0]));
+            members.clear();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_DELTA_KEY;
+
+/**
+ * 秒杀库存写回（write-behind）
+ * <p>
+ * 开启后秒杀期间以Redis库存为准，下单不再逐单执行 stock = stock - 1，
+ * 而是把每张券已落库订单数累计到Redis（seckill:stock:delta，voucherId -> 扣减数），
+ * 定时（以及秒杀结束时）由任一节点取出并聚合刷回 tb_seckill_voucher。
+ * 累计值不在JVM内存中，节点宕机不会丢失，对账时看到的也是所有节点的合计。
+ */
+@Slf4j
+@Component
+public class SeckillStockSyncer {
+
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("stock_delta_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.stock.write-behind:false}")
+    private boolean writeBehind;
+
+    //上次检查秒杀结束的时间
+    private LocalDateTime lastSettleTime = LocalDateTime.now();
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * 订单事务提交后记录库存扣减（事务回滚则不记录）
+     */
+    public void recordAfterCommit(Long voucherId, int n) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(voucherId, n);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                record(voucherId, n);
+            }
+        });
+    }
+
+    public void record(Long voucherId, int n) {
+        try {
+            stringRedisTemplate.opsForHash().increment(SECKILL_STOCK_DELTA_KEY, voucherId.toString(), n);
+        } catch (Exception e) {
+            // 订单已经提交，只能记录下来，由对账发现并人工修正
+            log.error("秒杀券{}库存扣减{}记录失败", voucherId, n, e);
+        }
+    }
+
+    /**
+     * 尚未刷回的库存扣减（所有节点合计）
+     */
+    public int pending(Long voucherId) {
+        Object delta = stringRedisTemplate.opsForHash().get(SECKILL_STOCK_DELTA_KEY, voucherId.toString());
+        return delta == null ? 0 : Integer.parseInt(delta.toString());
+    }
+
+    /**
+     * 定时把累计的扣减刷回数据库
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stock.flush-interval-ms:1000}")
+    public void flush() {
+        for (Object voucherId : stringRedisTemplate.opsForHash().keys(SECKILL_STOCK_DELTA_KEY)) {
+            flush(Long.valueOf(voucherId.toString()));
+        }
+    }
+
+    /**
+     * 秒杀结束时立即刷回该券剩余的扣减
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stock.settle-interval-ms:60000}")
+    public void settleEndedSales() {
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> ended = seckillVoucherService.query()
+                .select("voucher_id")
+                .gt("end_time", lastSettleTime)
+                .le("end_time", now)
+                .list();
+        lastSettleTime = now;
+        for (SeckillVoucher voucher : ended) {
+            flush(voucher.getVoucherId());
+            log.info("秒杀券{}已结束，库存已刷回数据库", voucher.getVoucherId());
+        }
+    }
+
+    public void flush(Long voucherId) {
+        // 1.原子地取出累计的扣减，多个节点同时刷回不会重复扣减
+        Long n = stringRedisTemplate.execute(TAKE_SCRIPT,
+                Collections.singletonList(SECKILL_STOCK_DELTA_KEY), voucherId.toString());
+        if (n == null || n == 0) {
+            return;
+        }
+        try {
+            // 2.set stock = stock - n where voucher_id = ?（Redis已经保证不超卖）
+            seckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", voucherId)
+                    .update();
+        } catch (Exception e) {
+            // 刷回失败，扣减放回去下次再刷
+            stringRedisTemplate.opsForHash().increment(SECKILL_STOCK_DELTA_KEY, voucherId.toString(), n);
+            log.error("秒杀券{}库存刷回失败", voucherId, e);
+        }
+    }
+}
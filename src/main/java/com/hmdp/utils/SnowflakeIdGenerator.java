@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地雪花算法id生成器，不访问Redis
+ * <p>
+ * 与RedisIdWorker的id结构兼容：高32位仍是相对BEGIN_TIMESTAMP的秒数，低32位拆成 10位workerId + 22位序列号，
+ * 所以新id和已经存在于tb_voucher_order的id按时间顺序排列。<br>
+ * workerId启动时通过Redis租用（SET icr:worker:{id} token NX EX ttl）并定时续期，只有续期依赖Redis。
+ * 续期失败时在租约剩余时间内继续发号；距上次成功续期超过租约时长后Redis中的key已过期，workerId可能被其它节点租走，
+ * 此时拒绝发号，直到重新续期成功。<br>
+ * 时钟回拨时沿用上一次的秒数继续发号，同一秒序列号用完则借用下一秒，保证单调递增。
+ */
+@Slf4j
+public class SnowflakeIdGenerator {
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 22;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = WORKER_BITS + SEQUENCE_BITS;
+    private static final String WORKER_KEY_PREFIX = "icr:worker:";
+    //时钟回拨超过该秒数时告警
+    private static final long MAX_BACKWARD_SECONDS = 5;
+
+    private static final DefaultRedisScript<Long> HEARTBEAT_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        HEARTBEAT_SCRIPT = new DefaultRedisScript<>();
+        HEARTBEAT_SCRIPT.setLocation(new ClassPathResource("worker_heartbeat.lua"));
+        HEARTBEAT_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long beginTimestamp;
+    private final long leaseSeconds;
+    //当前节点的租约标示
+    private final String token = UUID.randomUUID().toString(true);
+    private volatile long workerId = -1;
+    //租约到期时间（毫秒），按发出租用/续期请求前的时间计算，不会晚于Redis中key的实际过期时间
+    private volatile long leaseExpireMillis;
+    private final Clock clock;
+    //(相对秒数 << 22) | 序列号
+    private final AtomicLong state = new AtomicLong();
+    private ScheduledExecutorService heartbeat;
+    private volatile long lastWarnSecond;
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, long beginTimestamp, long leaseSeconds) {
+        this(stringRedisTemplate, beginTimestamp, leaseSeconds, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param clock 时钟，id的秒数按clock所在时区的本地时间计算
+     */
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, long beginTimestamp, long leaseSeconds, Clock clock) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.beginTimestamp = beginTimestamp;
+        this.leaseSeconds = leaseSeconds;
+        this.clock = clock;
+    }
+
+    /**
+     * 租用workerId并开始续期
+     */
+    public void start() {
+        long begin = clock.millis();
+        workerId = leaseWorkerId();
+        leaseExpireMillis = begin + TimeUnit.SECONDS.toMillis(leaseSeconds);
+        log.info("租用workerId={}", workerId);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "id-worker-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, leaseSeconds / 3);
+        heartbeat.scheduleWithFixedDelay(this::renew, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止续期并释放workerId
+     */
+    public void stop() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        if (workerId >= 0) {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(WORKER_KEY_PREFIX + workerId), token);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException workerId尚未租用，或租约已过期仍未续期成功
+     */
+    public long nextId() {
+        long worker = workerId;
+        if (worker < 0) {
+            throw new IllegalStateException("workerId尚未租用");
+        }
+        if (clock.millis() >= leaseExpireMillis) {
+            throw new IllegalStateException("workerId=" + worker + "租约已过期，暂停发号");
+        }
+        //与RedisIdWorker一致：本地时间按UTC换算秒数
+        long nowSecond = LocalDateTime.now(clock).toEpochSecond(ZoneOffset.UTC) - beginTimestamp;
+        while (true) {
+            long current = state.get();
+            long second = current >>> SEQUENCE_BITS;
+            long next;
+            if (nowSecond > second) {
+                //1.新的一秒，序列号从0开始
+                next = nowSecond << SEQUENCE_BITS;
+            } else if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                //2.同一秒，或时钟回拨（沿用上次的秒数）
+                next = current + 1;
+            } else {
+                //3.序列号用完，借用下一秒
+                next = (second + 1) << SEQUENCE_BITS;
+            }
+            if (state.compareAndSet(current, next)) {
+                if (second - nowSecond > MAX_BACKWARD_SECONDS && lastWarnSecond != nowSecond) {
+                    lastWarnSecond = nowSecond;
+                    log.warn("时钟回拨或发号过快，id时间戳领先系统时间{}秒", second - nowSecond);
+                }
+                return (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT | worker << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    private long leaseWorkerId() {
+        //从随机位置开始找空闲的workerId，减少多个节点同时启动的冲突
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + id, token, leaseSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    private void renew() {
+        long begin = clock.millis();
+        try {
+            Long renewed = stringRedisTemplate.execute(HEARTBEAT_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + workerId), token, String.valueOf(leaseSeconds));
+            if (renewed != null && renewed == 1) {
+                leaseExpireMillis = begin + TimeUnit.SECONDS.toMillis(leaseSeconds);
+                return;
+            }
+            //租约丢失（例如长时间连不上Redis），先尝试拿回原来的id，拿不到就换一个
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + workerId, token, leaseSeconds, TimeUnit.SECONDS);
+            if (!Boolean.TRUE.equals(success)) {
+                long old = workerId;
+                workerId = leaseWorkerId();
+                log.warn("workerId={}租约已被占用，改用workerId={}", old, workerId);
+            }
+            leaseExpireMillis = begin + TimeUnit.SECONDS.toMillis(leaseSeconds);
+        } catch (Exception e) {
+            //Redis不可用时在租约到期前继续使用当前workerId发号，到期后nextId拒绝发号
+            log.error("workerId={}续期失败，租约剩余{}ms", workerId, Math.max(0, leaseExpireMillis - begin), e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 令牌桶限流：按路由配置规则，按用户、IP或整个路由限流
+ * <p>
+ * 请求只在本地令牌桶上判断，不访问Redis；各节点定时把本地消耗的令牌批量提交给rate_limit.lua，
+ * 由Redis按全局速率补充、扣减后返回剩余令牌，再校正本地桶。
+ * 两次同步之间多个节点可能合计透支，透支部分记为Redis桶的欠账，在后续补充中扣回。<br>
+ * Redis Cluster下一次EVAL的key必须在同一个slot：桶key带hash tag {规则序号:分片}，同步时按hash tag分组提交。<br>
+ * 本地桶数量达到上限时新出现的维度值不建本地桶、直接放行（失败开放），不会因为人多把新用户全部拒绝。
+ */
+@Slf4j
+@Component
+public class TokenBucketRateLimiter {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RateLimitProperties properties;
+
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+    //单次同步最多提交的桶数
+    private static final int SYNC_BATCH = 500;
+    //每条规则的桶key分散到多少个hash tag（slot）
+    private static final int KEY_SHARDS = 16;
+    //桶数量达到上限时的告警间隔
+    private static final long FULL_WARN_INTERVAL_MS = 10000;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    //桶key -> 本地令牌桶
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private volatile long lastFullWarn;
+
+    /**
+     * 请求是否放行：需要通过所有匹配的规则
+     */
+    public boolean tryAcquire(HttpServletRequest request) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI();
+        List<RateLimitProperties.Rule> rules = properties.getRules();
+        for (int i = 0; i < rules.size(); i++) {
+            RateLimitProperties.Rule rule = rules.get(i);
+            if (!pathMatcher.match(rule.getPattern(), path)) {
+                continue;
+            }
+            String subject = subject(rule, request);
+            if (subject == null) {
+                continue;
+            }
+            // rate:limit:{规则序号:分片}:{维度值}
+            String key = RATE_LIMIT_KEY + "{" + i + ":" + (subject.hashCode() & Integer.MAX_VALUE) % KEY_SHARDS + "}:" + subject;
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                // 本地桶数量达到上限（例如大量不同IP）：新的维度值不建桶直接放行，等空闲的桶被移除；
+                // 拒绝会把之后出现的正常用户全部挡在外面，route维度的规则仍然限制总量
+                if (buckets.size() >= properties.getMaxBuckets()) {
+                    warnFull(key);
+                    continue;
+                }
+                bucket = buckets.computeIfAbsent(key, k -> new Bucket(rule.getCapacity(), rule.getRate()));
+            }
+            if (!bucket.tryAcquire()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void warnFull(String key) {
+        long now = System.currentTimeMillis();
+        if (now - lastFullWarn > FULL_WARN_INTERVAL_MS) {
+            lastFullWarn = now;
+            log.warn("本地令牌桶数量达到上限{}，新的维度值不限流直接放行，例如{}", properties.getMaxBuckets(), key);
+        }
+    }
+
+    /**
+     * 定时把本地消耗批量同步到Redis，并用全局剩余令牌校正本地桶
+     */
+    @Scheduled(fixedDelayString = "${hmdp.rate-limit.sync-interval-ms:200}")
+    public void sync() {
+        long now = System.currentTimeMillis();
+        // hash tag -> 待同步的桶（一次EVAL只提交同一个slot的key）
+        Map<String, SyncBatch> batches = new HashMap<>();
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            // 1.长时间未访问的桶从本地移除（Redis中的桶自行过期）
+            if (now - bucket.lastAccess > properties.getIdleMs()) {
+                buckets.remove(entry.getKey(), bucket);
+            }
+            int consumed = bucket.drainConsumed();
+            if (consumed == 0) {
+                continue;
+            }
+            String key = entry.getKey();
+            SyncBatch batch = batches.computeIfAbsent(key.substring(0, key.indexOf('}') + 1), k -> new SyncBatch());
+            batch.add(key, bucket, consumed);
+            if (batch.keys.size() == SYNC_BATCH) {
+                syncBatch(batch);
+                batch.clear();
+            }
+        }
+        for (SyncBatch batch : batches.values()) {
+            if (!batch.keys.isEmpty()) {
+                syncBatch(batch);
+            }
+        }
+    }
+
+    private void syncBatch(SyncBatch batch) {
+        List<?> remaining;
+        try {
+            remaining = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, batch.keys, batch.args.toArray());
+        } catch (Exception e) {
+            // Redis不可用时只按本地桶限流
+            log.warn("限流令牌同步失败：{}", e.getMessage());
+            return;
+        }
+        if (remaining == null) {
+            return;
+        }
+        for (int i = 0; i < batch.buckets.size() && i < remaining.size(); i++) {
+            batch.buckets.get(i).applyGlobal(Double.parseDouble(remaining.get(i).toString()));
+        }
+    }
+
+    /**
+     * 同一个hash tag下待同步的桶：key、本地桶，以及rate_limit.lua的参数（容量、速率、本地消耗数）
+     */
+    private static class SyncBatch {
+        private final List<String> keys = new ArrayList<>();
+        private final List<Bucket> buckets = new ArrayList<>();
+        private final List<String> args = new ArrayList<>();
+
+        private void add(String key, Bucket bucket, int consumed) {
+            keys.add(key);
+            buckets.add(bucket);
+            args.add(String.valueOf(bucket.capacity));
+            args.add(String.valueOf(bucket.rate));
+            args.add(String.valueOf(consumed));
+        }
+
+        private void clear() {
+            keys.clear();
+            buckets.clear();
+            args.clear();
+        }
+    }
+
+    private String subject(RateLimitProperties.Rule rule, HttpServletRequest request) {
+        switch (rule.getDimension()) {
+            case "user":
+                // 未登录的请求不按用户限流（由ip规则限制）
+                UserDTO user = UserHolder.getUser();
+                return user == null ? null : "user:" + user.getId();
+            case "ip":
+                return "ip:" + clientIp(request);
+            case "route":
+                return "route";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 客户端IP：请求来自可信的反向代理（nginx）时取X-Real-IP，否则取连接的对端地址（客户端自己带的X-Real-IP不可信）
+     */
+    private String clientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (!properties.getTrustedProxies().contains(remoteAddr)) {
+            return remoteAddr;
+        }
+        String ip = request.getHeader("X-Real-IP");
+        return StrUtil.isBlank(ip) ? remoteAddr : ip.trim();
+    }
+
+    private static class Bucket {
+        private final int capacity;
+        private final double rate;
+        private double tokens;
+        private long lastRefillNanos;
+        //上次同步之后本地消耗的令牌
+        private int consumed;
+        private volatile long lastAccess;
+
+        private Bucket(int capacity, double rate) {
+            this.capacity = capacity;
+            this.rate = rate;
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private synchronized boolean tryAcquire() {
+            lastAccess = System.currentTimeMillis();
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            consumed++;
+            return true;
+        }
+
+        private synchronized int drainConsumed() {
+            int n = consumed;
+            consumed = 0;
+            return n;
+        }
+
+        /**
+         * 用Redis返回的全局剩余令牌校正本地桶，扣掉同步期间本地新消耗的令牌
+         */
+        private synchronized void applyGlobal(double remaining) {
+            tokens = Math.min(capacity, remaining - consumed);
+            lastRefillNanos = System.nanoTime();
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * rate / 1_000_000_000L);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
 
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 public class UserHolder {
     private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
@@ -16,4 +19,41 @@ public class UserHolder {
     public static void removeUser(){
         tl.remove();
     }
+
+    /**
+     * 把当前线程的用户带到异步回调中：回调执行期间可以通过getUser()拿到，执行完恢复回调线程原来的值
+     */
+    public static <T, R> Function<T, R> wrap(Function<T, R> function) {
+        UserDTO user = getUser();
+        return t -> {
+            UserDTO previous = getUser();
+            saveUser(user);
+            try {
+                return function.apply(t);
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> supplier) {
+        UserDTO user = getUser();
+        return () -> {
+            UserDTO previous = getUser();
+            saveUser(user);
+            try {
+                return supplier.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(UserDTO previous) {
+        if (previous == null) {
+            removeUser();
+        } else {
+            saveUser(previous);
+        }
+    }
 }
@@ -0,0 +1,13 @@
+-- ----------------------------
+-- tb_voucher_order 一人一单唯一索引
+-- 下单不再加分布式锁、不再先count查询，依赖(user_id, voucher_id)唯一键 + INSERT IGNORE 保证幂等
+-- ----------------------------
+
+-- 1.清理历史重复订单（同一用户同一张券只保留id最小的一条）
+DELETE o1 FROM `tb_voucher_order` o1
+    JOIN `tb_voucher_order` o2
+    ON o1.`user_id` = o2.`user_id` AND o1.`voucher_id` = o2.`voucher_id` AND o1.`id` > o2.`id`;
+
+-- 2.添加唯一索引
+ALTER TABLE `tb_voucher_order`
+    ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
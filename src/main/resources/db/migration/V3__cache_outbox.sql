@@ -0,0 +1,16 @@
+-- ----------------------------
+-- tb_cache_outbox 缓存失效的事务性outbox
+-- 与数据修改在同一个事务中写入，由CacheOutboxRelay异步处理：删除缓存、延迟双删、更新布隆过滤器等派生索引，失败重试
+-- ----------------------------
+CREATE TABLE `tb_cache_outbox`  (
+  `id` bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `aggregate_type` varchar(32) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '变更的数据类型，例如shop',
+  `aggregate_id` bigint(20) UNSIGNED NOT NULL COMMENT '变更的数据id',
+  `phase` tinyint(1) UNSIGNED NOT NULL DEFAULT 0 COMMENT '阶段 0：第一次删除缓存；1：延迟双删',
+  `status` tinyint(1) UNSIGNED NOT NULL DEFAULT 0 COMMENT '状态 0：待处理；1：超过最大重试次数',
+  `retries` int(10) UNSIGNED NOT NULL DEFAULT 0 COMMENT '当前阶段已重试次数',
+  `next_retry_time` datetime(3) NOT NULL COMMENT '下次处理时间',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_status_next_retry`(`status`, `next_retry_time`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
@@ -0,0 +1,31 @@
+-- 令牌桶批量同步：KEYS为各个桶的key，ARGV按 容量、每秒补充令牌数、本地消耗数 三个一组
+-- 返回每个桶同步后的剩余令牌数
+
+-- 1.使用Redis服务器时间，避免各节点时钟不一致（读取TIME之后再写入需要按命令复制）
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local result = {}
+for i, key in ipairs(KEYS) do
+    -- 2.参数：容量、每秒补充令牌数、本地消耗数
+    local capacity = tonumber(ARGV[i * 3 - 2])
+    local rate = tonumber(ARGV[i * 3 - 1])
+    local consumed = tonumber(ARGV[i * 3])
+    -- 3.按上次更新时间补充令牌 HMGET key tokens ts
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if (tokens == nil or ts == nil) then
+        tokens = capacity
+        ts = now
+    end
+    tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+    -- 4.扣除各节点本地消耗的令牌（多个节点同时透支时记为欠账，最多欠一个桶的容量）
+    tokens = math.max(-capacity, tokens - consumed)
+    redis.call('hset', key, 'tokens', tostring(tokens), 'ts', tostring(now))
+    -- 5.桶补满所需时间的两倍后过期
+    redis.call('pexpire', key, math.ceil(capacity / rate * 1000) * 2 + 1000)
+    result[i] = tostring(tokens)
+end
+return result
@@ -6,28 +6,36 @@ local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
 
--- 2.数据key
+-- 2.数据key（都是同一个桶的key，hash tag相同，在同一个slot）
 -- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
+local stockKey = KEYS[1]
 -- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+local orderKey = KEYS[2]
+-- 2.3.订单消息队列key（这个桶的Stream分片）
+local streamKey = KEYS[3]
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
--- tonumber字符串转数字类型
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
-end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
+-- 3.1.判断用户是否下单 SISMEMBER orderKey userId
+-- 先判断是否下单再判断库存：分桶时用户可能在已经卖完的桶里买到过，必须先发现重复
 if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
+    -- 3.2.存在，说明是重复下单，返回2
     return 2
 end
--- 3.4.扣库存 incrby stockKey -1
+-- 3.3.判断库存是否充足 get stockKey
+-- tonumber字符串转数字类型
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil) then
+    -- 3.4.库存key不存在（还没有预热，或者Redis数据丢失），不能当作卖完，返回3
+    return 3
+end
+if(stock <= 0) then
+    -- 3.5.库存不足（分桶时代表这个桶卖完了），返回1
+    return 1
+end
+-- 3.6.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
+-- 3.7.下单（保存用户）sadd orderKey userId
 redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 3.8.发送消息到队列中， XADD stream.orders{voucherId:bucket} * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
@@ -0,0 +1,18 @@
+-- 订单转入死信队列（多次落库失败）后归还Redis中的名额
+-- 1.参数列表
+-- 1.1.订单所在桶的库存key、下单用户key（同一个hash tag）
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+-- 1.2.用户id
+local userId = ARGV[1]
+
+-- 2.移除下单记录 SREM orderKey userId
+-- 只有确实移除了才归还库存：重复执行不会多加库存
+if (redis.call('srem', orderKey, userId) == 0) then
+    return 0
+end
+-- 3.归还库存 INCRBY stockKey 1（库存key已被清理时不重建）
+if (redis.call('exists', stockKey) == 1) then
+    redis.call('incrby', stockKey, 1)
+end
+return 1
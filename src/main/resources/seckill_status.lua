@@ -0,0 +1,11 @@
+-- 记录订单状态为排队中（seckill.lua返回0之后、把订单id返回给客户端之前执行）
+-- 订单状态key按订单id查询，和桶的key不在同一个slot，所以不放在seckill.lua里
+local statusKey = KEYS[1]
+local userId = ARGV[1]
+local voucherId = ARGV[2]
+local statusTtl = ARGV[3]
+-- 下单线程可能已经写入了CREATED/FAILED，不能覆盖 HSETNX statusKey status QUEUED
+redis.call('hsetnx', statusKey, 'status', 'QUEUED')
+redis.call('hset', statusKey, 'userId', userId, 'voucherId', voucherId)
+redis.call('expire', statusKey, statusTtl)
+return 0
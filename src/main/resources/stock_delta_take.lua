@@ -0,0 +1,9 @@
+-- 取出一张券待刷回数据库的库存扣减（多个节点同时刷回时只有一个能取到）
+-- KEYS[1] seckill:stock:delta  ARGV[1] voucherId
+local n = tonumber(redis.call('hget', KEYS[1], ARGV[1]))
+if (n == nil or n == 0) then
+    return 0
+end
+-- 只减去取到的数量，取出之后新记录的扣减留给下一次
+redis.call('hincrby', KEYS[1], ARGV[1], -n)
+return n
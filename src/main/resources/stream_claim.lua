@@ -0,0 +1,51 @@
+-- 1.参数列表
+-- 1.1.消息队列key、死信队列key（同一个hash tag）
+local streamKey = KEYS[1]
+local deadLetterKey = KEYS[2]
+-- 1.2.消费者组、认领者（当前消费者）
+local group = ARGV[1]
+local consumer = ARGV[2]
+-- 1.3.最小空闲时间(毫秒)、单次扫描数量、最大投递次数
+local minIdle = tonumber(ARGV[3])
+local count = tonumber(ARGV[4])
+local maxDeliveries = tonumber(ARGV[5])
+
+-- 2.查询pending-list XPENDING stream.orders{voucherId:bucket} g1 - + count
+local pending = redis.call('xpending', streamKey, group, '-', '+', count)
+local claimed = 0
+-- 返回值：第一个元素是认领数量，之后每两个元素是一条转入死信队列的订单id和用户id
+-- （由调用方归还Redis库存、标记订单失败并通知客户端）
+local result = {0}
+for _, entry in ipairs(pending) do
+    -- 2.1.消息id、所属消费者、空闲时间、投递次数
+    local id, owner, idle, deliveries = entry[1], entry[2], entry[3], entry[4]
+    if (idle >= minIdle) then
+        if (deliveries >= maxDeliveries) then
+            -- 3.多次投递仍失败，转入死信队列并确认，避免毒消息反复阻塞
+            local msg = redis.call('xrange', streamKey, id, id)
+            if (#msg > 0) then
+                local fields = msg[1][2]
+                local orderId, userId = '', ''
+                for i = 1, #fields, 2 do
+                    if (fields[i] == 'id') then
+                        orderId = fields[i + 1]
+                    elseif (fields[i] == 'userId') then
+                        userId = fields[i + 1]
+                    end
+                end
+                table.insert(result, orderId)
+                table.insert(result, userId)
+                table.insert(fields, 'sourceId')
+                table.insert(fields, id)
+                redis.call('xadd', deadLetterKey, '*', unpack(fields))
+            end
+            redis.call('xack', streamKey, group, id)
+        elseif (owner ~= consumer) then
+            -- 4.其它消费者长时间未确认（宕机），认领到当前消费者 XCLAIM ... JUSTID
+            redis.call('xclaim', streamKey, group, consumer, minIdle, id, 'JUSTID')
+            claimed = claimed + 1
+        end
+    end
+end
+result[1] = claimed
+return result
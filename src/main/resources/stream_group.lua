@@ -0,0 +1,4 @@
+-- 创建消费者组（队列不存在时一并创建），组已存在时忽略BUSYGROUP错误
+-- XGROUP CREATE stream.orders g1 0 MKSTREAM
+redis.pcall('xgroup', 'create', KEYS[1], ARGV[1], '0', 'MKSTREAM')
+return 0
@@ -0,0 +1,145 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BinaryCacheCodec：编解码往返，以及损坏、截断的数据按未命中（null）处理而不是抛异常
+ */
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = codec(512);
+    //阈值为0，任何值都尝试压缩
+    private final BinaryCacheCodec deflating = codec(0);
+
+    @Test
+    void roundTrip() {
+        Shop shop = shop();
+        byte[] raw = codec.encode(shop);
+        assertTrue(codec.canDecode(raw));
+        assertEquals(shop, codec.decode(raw, Shop.class));
+    }
+
+    @Test
+    void roundTripCompressed() {
+        Shop shop = shop();
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            images.append(i == 0 ? "" : ",").append("https://qcloud.dpfile.com/pc/").append(i).append(".jpg");
+        }
+        shop.setImages(images.toString());
+        byte[] raw = deflating.encode(shop);
+        assertEquals((byte) 0xB2, raw[0]);
+        assertEquals(shop, deflating.decode(raw, Shop.class));
+    }
+
+    @Test
+    void roundTripLogical() {
+        Shop shop = shop();
+        LocalDateTime expireTime = LocalDateTime.of(2022, 1, 13, 18, 0, 0, 123_000_000);
+        RedisData data = codec.decodeLogical(codec.encodeLogical(shop, expireTime), Shop.class);
+        assertEquals(expireTime, data.getExpireTime());
+        assertEquals(shop, data.getData());
+    }
+
+    @Test
+    void nullFieldsRoundTrip() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void kindMismatchIsMiss() {
+        Shop shop = shop();
+        assertNull(codec.decodeLogical(codec.encode(shop), Shop.class));
+        assertNull(codec.decode(codec.encodeLogical(shop, LocalDateTime.now()), Shop.class));
+    }
+
+    @Test
+    void truncatedIsMiss() {
+        for (BinaryCacheCodec c : new BinaryCacheCodec[]{codec, deflating}) {
+            byte[] raw = c.encode(shop());
+            for (int n = 1; n < raw.length; n++) {
+                assertNull(c.decode(Arrays.copyOf(raw, n), Shop.class), "截断到" + n + "字节");
+            }
+            byte[] logical = c.encodeLogical(shop(), LocalDateTime.now());
+            for (int n = 1; n < logical.length; n++) {
+                assertNull(c.decodeLogical(Arrays.copyOf(logical, n), Shop.class), "截断到" + n + "字节");
+            }
+        }
+    }
+
+    @Test
+    void trailingBytesIsMiss() {
+        byte[] raw = codec.encode(shop());
+        assertNull(codec.decode(Arrays.copyOf(raw, raw.length + 1), Shop.class));
+    }
+
+    @Test
+    void schemaHashMismatchIsMiss() {
+        byte[] raw = codec.encode(shop());
+        // 首字节、类型之后是4字节结构哈希
+        raw[2] ^= 0x01;
+        assertNull(codec.decode(raw, Shop.class));
+    }
+
+    @Test
+    void badVarintIsMiss() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        byte[] raw = codec.encode(shop);
+        // 唯一的非null字段id=1编码为最后1个字节，换成超过10字节的变长整数
+        byte[] corrupt = Arrays.copyOf(raw, raw.length - 1 + 12);
+        Arrays.fill(corrupt, raw.length - 1, corrupt.length, (byte) 0xFF);
+        assertNull(codec.decode(corrupt, Shop.class));
+    }
+
+    @Test
+    void corruptBytesNeverThrow() {
+        for (BinaryCacheCodec c : new BinaryCacheCodec[]{codec, deflating}) {
+            byte[] raw = c.encodeLogical(shop(), LocalDateTime.now());
+            for (int i = 1; i < raw.length; i++) {
+                byte[] corrupt = raw.clone();
+                corrupt[i] ^= (byte) 0xFF;
+                // 可能解码出不同的值，但不能抛异常
+                c.decodeLogical(corrupt, Shop.class);
+            }
+        }
+    }
+
+    private static BinaryCacheCodec codec(int compressThreshold) {
+        CacheClientProperties properties = new CacheClientProperties();
+        properties.setCompressThreshold(compressThreshold);
+        return new BinaryCacheCodec(properties);
+    }
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
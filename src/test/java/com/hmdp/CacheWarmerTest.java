@@ -0,0 +1,168 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * CacheWarmer：按批写入缓存、热点数据写完后启动返回、剩余数据在后台写完、按需预热期间readiness为REFUSING_TRAFFIC
+ * （数据库和CacheClient用mock代替，等待后台线程结束后再检查）
+ */
+class CacheWarmerTest {
+
+    private static final int ROWS = 5;
+
+    private CacheClientProperties properties;
+    private JdbcTemplate jdbcTemplate;
+    private CacheWarmer warmer;
+    //每次setAllWithLogicalExpire写入的id（batch写入后会被清空，这里复制一份）
+    private final List<List<Object>> batches = new CopyOnWriteArrayList<>();
+    private final List<Object> events = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        CacheClientProperties.Warm warm = new CacheClientProperties.Warm();
+        warm.setPrefix("cache:shop:");
+        warm.setTable("tb_shop");
+        warm.setEntity(Shop.class);
+        warm.setTopN(2);
+        warm.setBatchSize(2);
+        properties = new CacheClientProperties();
+        properties.getWarm().add(warm);
+        properties.setWarmReadyTimeoutMs(5000);
+
+        CacheClient cacheClient = mock(CacheClient.class);
+        doAnswer(invocation -> {
+            batches.add(new ArrayList<>(((Map<Object, Object>) invocation.getArgument(1)).keySet()));
+            return null;
+        }).when(cacheClient).setAllWithLogicalExpire(anyString(), any(Map.class), anyLong(), any(TimeUnit.class));
+
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn((long) ROWS);
+        ResultSet rs = resultSet();
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int i = 1; i <= ROWS; i++) {
+                when(rs.getObject("id")).thenReturn((long) i);
+                when(rs.getLong(1)).thenReturn((long) i);
+                when(rs.getString(2)).thenReturn("shop" + i);
+                when(rs.getRow()).thenReturn(i);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+
+        warmer = new CacheWarmer();
+        ReflectionTestUtils.setField(warmer, "properties", properties);
+        ReflectionTestUtils.setField(warmer, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(warmer, "streamingJdbcTemplate", jdbcTemplate);
+        ApplicationEventPublisher publisher = events::add;
+        ReflectionTestUtils.setField(warmer, "applicationEventPublisher", publisher);
+    }
+
+    @Test
+    void runWarmsAllRowsInBatches() throws InterruptedException {
+        warmer.run(null);
+        // 启动时至少等到前topN条写完才返回
+        assertTrue(warmer.progress().get("cache:shop:").getWarmed() >= 2);
+        awaitDone();
+        CacheWarmer.Progress progress = warmer.progress().get("cache:shop:");
+        assertEquals("DONE", progress.getState());
+        assertEquals(ROWS, progress.getWarmed());
+        assertEquals(Long.valueOf(ROWS), progress.getTotal());
+        assertEquals(3, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(2).size());
+        assertEquals(5L, batches.get(2).get(0));
+    }
+
+    @Test
+    void failureDoesNotBlockStartup() throws InterruptedException {
+        doAnswer(invocation -> {
+            throw new QueryTimeoutException("timeout");
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+        warmer.run(null);
+        awaitDone();
+        assertEquals("FAILED", warmer.progress().get("cache:shop:").getState());
+    }
+
+    @Test
+    void warmRefusesTrafficUntilHotSetIsBack() throws InterruptedException {
+        assertEquals("开始预热", warmer.warm());
+        awaitDone();
+        // 预热结束之后才重新接收流量
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < 2 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(2, events.size());
+        assertEquals(ReadinessState.REFUSING_TRAFFIC, ((AvailabilityChangeEvent<?>) events.get(0)).getState());
+        assertEquals(ReadinessState.ACCEPTING_TRAFFIC, ((AvailabilityChangeEvent<?>) events.get(1)).getState());
+        assertEquals(ROWS, warmer.progress().get("cache:shop:").getWarmed());
+    }
+
+    /**
+     * 剩余数据在后台线程写入：等所有表的状态都不是RUNNING，并且可以再次开始预热
+     */
+    private void awaitDone() throws InterruptedException {
+        AtomicBoolean running = (AtomicBoolean) ReflectionTestUtils.getField(warmer, "running");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean done = true;
+            for (CacheWarmer.Progress progress : warmer.progress().values()) {
+                done &= !"RUNNING".equals(progress.getState()) && progress.getEndTime() != null;
+            }
+            if (done && !running.get()) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new AssertionError("预热没有在5秒内结束");
+    }
+
+    /**
+     * 只有id、name两列的结果集
+     */
+    private static ResultSet resultSet() throws Exception {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(2);
+        when(metaData.getColumnLabel(1)).thenReturn("id");
+        when(metaData.getColumnLabel(2)).thenReturn("name");
+        when(metaData.getColumnType(1)).thenReturn(Types.BIGINT);
+        when(metaData.getColumnType(2)).thenReturn(Types.VARCHAR);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metaData);
+        return rs;
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp;
+
+import com.hmdp.utils.OrderRingBuffer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * OrderRingBuffer：容量取整、空/满判断、绕回之后仍按顺序取出
+ */
+class OrderRingBufferTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new OrderRingBuffer(5).capacity());
+        assertEquals(8, new OrderRingBuffer(8).capacity());
+        assertEquals(1, new OrderRingBuffer(1).capacity());
+    }
+
+    @Test
+    void empty() {
+        OrderRingBuffer ring = new OrderRingBuffer(4);
+        OrderRingBuffer.Batch batch = new OrderRingBuffer.Batch(4);
+        assertEquals(0, ring.size());
+        assertEquals(4, ring.remainingCapacity());
+        assertEquals(0, ring.oldestEnqueueMillis());
+        assertEquals(0, ring.drainTo(batch));
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    void full() {
+        OrderRingBuffer ring = new OrderRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(offer(ring, i));
+        }
+        assertEquals(0, ring.remainingCapacity());
+        assertFalse(offer(ring, 4));
+        // 取出一个之后又可以写入
+        OrderRingBuffer.Batch batch = new OrderRingBuffer.Batch(1);
+        assertEquals(1, ring.drainTo(batch));
+        assertEquals(0, batch.orderId(0));
+        assertTrue(offer(ring, 4));
+        assertFalse(offer(ring, 5));
+    }
+
+    @Test
+    void wrapAroundKeepsOrder() {
+        OrderRingBuffer ring = new OrderRingBuffer(4);
+        OrderRingBuffer.Batch batch = new OrderRingBuffer.Batch(3);
+        long next = 0;
+        long expected = 0;
+        // 每轮写满再取出3个，写入位置多次绕回数组开头
+        for (int round = 0; round < 10; round++) {
+            while (offer(ring, next)) {
+                next++;
+            }
+            int n = ring.drainTo(batch);
+            assertEquals(3, n);
+            for (int i = 0; i < n; i++, expected++) {
+                assertEquals(expected, batch.orderId(i));
+                assertEquals(expected + 1000, batch.userId(i));
+                assertEquals(expected + 2000, batch.voucherId(i));
+                assertEquals((int) (expected % 3), batch.shard(i));
+                assertEquals(expected + 3000, batch.recordMillis(i));
+                assertEquals(expected + 4000, batch.recordSequence(i));
+            }
+        }
+        assertEquals(next - expected, ring.size());
+        assertTrue(ring.oldestEnqueueMillis() > 0);
+    }
+
+    @Test
+    void drainLimitedByBatchCapacity() {
+        OrderRingBuffer ring = new OrderRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            offer(ring, i);
+        }
+        OrderRingBuffer.Batch batch = new OrderRingBuffer.Batch(2);
+        assertEquals(2, ring.drainTo(batch));
+        assertEquals(2, ring.drainTo(batch));
+        assertEquals(1, ring.drainTo(batch));
+        assertEquals(4, batch.orderId(0));
+        assertEquals(0, ring.drainTo(batch));
+    }
+
+    private static boolean offer(OrderRingBuffer ring, long orderId) {
+        return ring.offer(orderId, orderId + 1000, orderId + 2000, (int) (orderId % 3), orderId + 3000, orderId + 4000);
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker 逐个INCR、号段模式、雪花算法 的对比，需要能连上Redis：
+ * -Dredis.host=20.20.20.133 -Dredis.port=6379 -Dredis.password=123321
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisIdWorker redisWorker;
+    private RedisIdWorker segmentWorker;
+    private RedisIdWorker snowflakeWorker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "20.20.20.133"),
+                Integer.getInteger("redis.port", 6379));
+        config.setPassword(RedisPassword.of(System.getProperty("redis.password", "123321")));
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        redisWorker = new RedisIdWorker(template, "redis", 1000, 60);
+        segmentWorker = new RedisIdWorker(template, "segment", 1000, 60);
+        snowflakeWorker = new RedisIdWorker(template, "snowflake", 1000, 60);
+        snowflakeWorker.init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snowflakeWorker.destroy();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long redisIncr() {
+        return redisWorker.nextId("bench");
+    }
+
+    @Benchmark
+    public long segment() {
+        return segmentWorker.nextId("bench");
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeWorker.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisIdWorkerBenchmark.class.getSimpleName())
+                .jvmArgsAppend(
+                        "-Dredis.host=" + System.getProperty("redis.host", "20.20.20.133"),
+                        "-Dredis.port=" + System.getProperty("redis.port", "6379"),
+                        "-Dredis.password=" + System.getProperty("redis.password", "123321"))
+                .build()).run();
+    }
+}
@@ -0,0 +1,183 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * RedisIdWorker号段模式：号段切换、并发预取只租用一次、跨天重新计数、多线程发号不重复（INCRBY用内存计数器代替）
+ */
+class RedisIdWorkerSegmentTest {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final int STEP = 100;
+    private static final long COUNT_MASK = (1L << 32) - 1;
+
+    //序列号key -> 计数器
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    //INCRBY调用次数（每次租用一个号段）
+    private final AtomicInteger leases = new AtomicInteger();
+    private MutableClock clock;
+    private RedisIdWorker worker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            leases.incrementAndGet();
+            String key = invocation.getArgument(0);
+            long delta = invocation.getArgument(1);
+            return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+        });
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+        clock = new MutableClock(LocalDateTime.of(2026, 1, 1, 12, 0, 0).toInstant(ZoneOffset.UTC));
+        worker = new RedisIdWorker(template, "segment", STEP, 60, clock);
+    }
+
+    @Test
+    void idLayout() {
+        long id = worker.nextId("order");
+        long second = LocalDateTime.of(2026, 1, 1, 12, 0, 0).toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        assertEquals(second, id >>> 32);
+        assertEquals(1, id & COUNT_MASK);
+        assertEquals(STEP, counters.get("icr:order:2026:01:01").get());
+    }
+
+    @Test
+    void segmentHandover() throws InterruptedException {
+        // 用完多个号段：序列号不重复，且都在已租用的范围内
+        int n = STEP * 5 + 7;
+        Set<Long> counts = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            long count = worker.nextId("order") & COUNT_MASK;
+            assertTrue(counts.add(count), "重复的序列号" + count);
+        }
+        awaitPrefetch();
+        long leased = counters.get("icr:order:2026:01:01").get();
+        for (long count : counts) {
+            assertTrue(count >= 1 && count <= leased);
+        }
+        // 最多浪费当前号段剩余部分和一个预取的号段
+        assertTrue(leased - n < 2 * STEP, "租用了" + leased);
+    }
+
+    @Test
+    void dayRolloverRestartsSequence() throws InterruptedException {
+        clock.set(LocalDateTime.of(2026, 1, 1, 23, 59, 59).toInstant(ZoneOffset.UTC));
+        for (int i = 0; i < STEP - 1; i++) {
+            worker.nextId("order");
+        }
+        awaitPrefetch();
+        clock.set(LocalDateTime.of(2026, 1, 2, 0, 0, 0).toInstant(ZoneOffset.UTC));
+        long id = worker.nextId("order");
+        // 新的一天使用新的key，从1开始，不沿用前一天预取的号段
+        assertEquals(1, id & COUNT_MASK);
+        assertEquals(STEP, counters.get("icr:order:2026:01:02").get());
+        assertEquals(2 * STEP, counters.get("icr:order:2026:01:01").get());
+    }
+
+    @Test
+    void prefixesAreIndependent() {
+        assertEquals(1, worker.nextId("order") & COUNT_MASK);
+        assertEquals(1, worker.nextId("blog") & COUNT_MASK);
+        assertEquals(2, worker.nextId("order") & COUNT_MASK);
+    }
+
+    @Test
+    void uniqueUnderConcurrency() throws Exception {
+        int threads = 8;
+        int perThread = 20000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = worker.nextId("order");
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+            Set<Long> all = new HashSet<>(threads * perThread * 2);
+            for (Future<long[]> future : futures) {
+                for (long id : future.get(30, TimeUnit.SECONDS)) {
+                    assertTrue(all.add(id), "重复的id" + id);
+                }
+            }
+            awaitPrefetch();
+            // 号段用完时多个线程同时切换、同时触发预取，也只租用需要的号段
+            int total = threads * perThread;
+            assertTrue(leases.get() <= total / STEP + 2, "租用了" + leases.get() + "次");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 预取在后台线程执行，等它结束再检查计数器
+     */
+    private static void awaitPrefetch() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(100);
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void set(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
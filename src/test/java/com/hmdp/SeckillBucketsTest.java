@@ -0,0 +1,80 @@
+package com.hmdp;
+
+import com.hmdp.utils.SeckillBuckets;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SeckillBuckets：库存拆分、同一个桶的key共用hash tag、从key取回hash tag、主桶分布
+ */
+class SeckillBucketsTest {
+
+    @Test
+    void bucketStockSplitsEvenly() {
+        assertEquals(4, SeckillBuckets.bucketStock(10, 0, 3));
+        assertEquals(3, SeckillBuckets.bucketStock(10, 1, 3));
+        assertEquals(3, SeckillBuckets.bucketStock(10, 2, 3));
+        for (int stock = 0; stock <= 100; stock++) {
+            for (int buckets = 1; buckets <= 16; buckets++) {
+                int total = 0;
+                int min = Integer.MAX_VALUE;
+                int max = 0;
+                for (int bucket = 0; bucket < buckets; bucket++) {
+                    int n = SeckillBuckets.bucketStock(stock, bucket, buckets);
+                    total += n;
+                    min = Math.min(min, n);
+                    max = Math.max(max, n);
+                }
+                assertEquals(stock, total);
+                assertTrue(max - min <= 1);
+            }
+        }
+    }
+
+    @Test
+    void keysOfBucketShareHashTag() {
+        assertEquals("seckill:stock:{10}", SeckillBuckets.stockKey(10L, 0, 1));
+        assertEquals("seckill:stock:{10:3}", SeckillBuckets.stockKey(10L, 3, 4));
+        assertEquals("seckill:order:{10:3}", SeckillBuckets.orderKey(10L, 3, 4));
+        assertEquals("stream.orders{10:3}", SeckillBuckets.streamKey(10L, 3, 4));
+        assertEquals("stream.orders{10:3}.dlq", SeckillBuckets.deadLetterKey(SeckillBuckets.streamKey(10L, 3, 4)));
+    }
+
+    @Test
+    void tagOfStreamKey() {
+        String tag = SeckillBuckets.tagOf(SeckillBuckets.streamKey(10L, 3, 4));
+        assertEquals("{10:3}", tag);
+        assertEquals(SeckillBuckets.stockKey(10L, 3, 4), "seckill:stock:" + tag);
+        assertEquals(10L, SeckillBuckets.voucherIdOf(tag));
+        assertEquals(12L, SeckillBuckets.voucherIdOf(SeckillBuckets.tagOf(SeckillBuckets.streamKey(12L, 0, 1))));
+        // 旧的单队列没有hash tag
+        assertNull(SeckillBuckets.tagOf("stream.orders"));
+    }
+
+    @Test
+    void homeBucketInRange() {
+        for (long userId = 1; userId <= 1000; userId++) {
+            assertEquals(0, SeckillBuckets.homeBucket(userId, 1));
+            int bucket = SeckillBuckets.homeBucket(userId, 7);
+            assertTrue(bucket >= 0 && bucket < 7);
+        }
+    }
+
+    @Test
+    void homeBucketSpreadsConsecutiveUsers() {
+        int buckets = 8;
+        int users = 80000;
+        int[] counts = new int[buckets];
+        for (long userId = 1; userId <= users; userId++) {
+            counts[SeckillBuckets.homeBucket(userId, buckets)]++;
+        }
+        // 连续的用户id也要均匀分到各个桶（偏差不超过5%）
+        int mean = users / buckets;
+        for (int count : counts) {
+            assertTrue(Math.abs(count - mean) <= mean / 20, "桶内用户数" + count);
+        }
+    }
+}
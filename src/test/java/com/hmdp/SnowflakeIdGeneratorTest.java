@@ -0,0 +1,128 @@
+package com.hmdp;
+
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * SnowflakeIdGenerator：id的位布局、同一秒序列号用完借用下一秒、时钟回拨、租约过期后拒绝发号（Redis用mock代替）
+ */
+class SnowflakeIdGeneratorTest {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final long LEASE_SECONDS = 60;
+    private static final long WORKER_ID = 5;
+    private static final long SEQUENCE_MASK = (1L << 22) - 1;
+
+    private MutableClock clock;
+    private SnowflakeIdGenerator generator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // 只有workerId=5可以租用
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenReturn(false);
+        when(ops.setIfAbsent(eq("icr:worker:" + WORKER_ID), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenReturn(true);
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+
+        clock = new MutableClock(Instant.ofEpochSecond(BEGIN_TIMESTAMP + 1000));
+        generator = new SnowflakeIdGenerator(template, BEGIN_TIMESTAMP, LEASE_SECONDS, clock);
+        generator.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        generator.stop();
+    }
+
+    @Test
+    void bitLayout() {
+        long id = generator.nextId();
+        assertEquals(1000, id >>> 32);
+        assertEquals(WORKER_ID, (id >>> 22) & 1023);
+        assertEquals(0, id & SEQUENCE_MASK);
+        assertEquals(1, generator.nextId() & SEQUENCE_MASK);
+    }
+
+    @Test
+    void sequenceRollsOverToNextSecond() {
+        long last = -1;
+        for (long i = 0; i <= SEQUENCE_MASK; i++) {
+            long id = generator.nextId();
+            assertEquals(i, id & SEQUENCE_MASK);
+            last = id;
+        }
+        assertEquals(1000, last >>> 32);
+        // 同一秒序列号用完，借用下一秒
+        long id = generator.nextId();
+        assertEquals(1001, id >>> 32);
+        assertEquals(0, id & SEQUENCE_MASK);
+        assertTrue(id > last);
+    }
+
+    @Test
+    void clockBackwardKeepsIncreasing() {
+        long before = generator.nextId();
+        clock.advance(-10_000);
+        long after = generator.nextId();
+        assertEquals(1000, after >>> 32);
+        assertTrue(after > before);
+    }
+
+    @Test
+    void refusesAfterLeaseExpires() {
+        generator.nextId();
+        clock.advance(TimeUnit.SECONDS.toMillis(LEASE_SECONDS) - 1);
+        generator.nextId();
+        // 心跳没有续期成功，超过租约时长后workerId可能已被其它节点租走
+        clock.advance(1);
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(long millis) {
+            instant = instant.plusMillis(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
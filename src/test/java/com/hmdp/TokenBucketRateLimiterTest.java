@@ -0,0 +1,154 @@
+package com.hmdp;
+
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.utils.TokenBucketRateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TokenBucketRateLimiter本地令牌桶：突发容量、按速率补充、按IP分桶、桶数量上限；同步时按slot分组提交
+ */
+class TokenBucketRateLimiterTest {
+
+    private RateLimitProperties properties;
+    private TokenBucketRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        properties = new RateLimitProperties();
+        limiter = new TokenBucketRateLimiter();
+        ReflectionTestUtils.setField(limiter, "properties", properties);
+    }
+
+    @Test
+    void burstUpToCapacity() {
+        rule("route", 5, 0.001);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        }
+        assertFalse(limiter.tryAcquire(request("1.1.1.1")));
+    }
+
+    @Test
+    void refillAtRate() throws InterruptedException {
+        rule("route", 2, 20);
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertFalse(limiter.tryAcquire(request("1.1.1.1")));
+        // 每秒20个，150ms补充约3个，但不超过容量2
+        Thread.sleep(150);
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertFalse(limiter.tryAcquire(request("1.1.1.1")));
+    }
+
+    @Test
+    void bucketPerIp() {
+        rule("ip", 1, 0.001);
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertFalse(limiter.tryAcquire(request("1.1.1.1")));
+        assertTrue(limiter.tryAcquire(request("2.2.2.2")));
+    }
+
+    @Test
+    void realIpOnlyFromTrustedProxy() {
+        rule("ip", 1, 0.001);
+        properties.setTrustedProxies(Collections.singletonList("127.0.0.1"));
+        // 客户端直连时自己带的X-Real-IP不可信，仍按连接地址分桶
+        MockHttpServletRequest forged = request("1.1.1.1");
+        forged.addHeader("X-Real-IP", "9.9.9.9");
+        assertTrue(limiter.tryAcquire(forged));
+        MockHttpServletRequest forgedAgain = request("1.1.1.1");
+        forgedAgain.addHeader("X-Real-IP", "8.8.8.8");
+        assertFalse(limiter.tryAcquire(forgedAgain));
+        // 经过可信代理时按X-Real-IP分桶
+        MockHttpServletRequest proxied = request("127.0.0.1");
+        proxied.addHeader("X-Real-IP", "9.9.9.9");
+        assertTrue(limiter.tryAcquire(proxied));
+    }
+
+    @Test
+    void failsOpenAboveMaxBuckets() {
+        rule("ip", 1, 0.001);
+        properties.setMaxBuckets(2);
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertTrue(limiter.tryAcquire(request("2.2.2.2")));
+        // 桶数量达到上限：新的IP不建桶直接放行，而不是全部拒绝
+        assertTrue(limiter.tryAcquire(request("3.3.3.3")));
+        assertTrue(limiter.tryAcquire(request("3.3.3.3")));
+        // 已有的桶照常限流
+        assertFalse(limiter.tryAcquire(request("1.1.1.1")));
+    }
+
+    @Test
+    void syncSubmitsOneSlotPerScript() {
+        List<List<String>> calls = new ArrayList<>();
+        ReflectionTestUtils.setField(limiter, "stringRedisTemplate", new StringRedisTemplate() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                calls.add(new ArrayList<>(keys));
+                List<String> remaining = new ArrayList<>();
+                for (int i = 0; i < keys.size(); i++) {
+                    remaining.add("1");
+                }
+                return (T) remaining;
+            }
+        });
+        rule("ip", 10, 10);
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire(request("10.0.0." + i));
+        }
+        limiter.sync();
+        // Redis Cluster下一次EVAL的key必须在同一个slot：每次提交的key的hash tag相同
+        int total = 0;
+        for (List<String> keys : calls) {
+            String tag = keys.get(0).substring(0, keys.get(0).indexOf('}') + 1);
+            for (String key : keys) {
+                assertTrue(key.startsWith(tag), key);
+            }
+            total += keys.size();
+        }
+        assertEquals(200, total);
+        assertTrue(calls.size() > 1);
+    }
+
+    @Test
+    void disabledOrUnmatchedPasses() {
+        rule("route", 1, 0.001);
+        MockHttpServletRequest other = request("1.1.1.1");
+        other.setRequestURI("/shop/1");
+        assertTrue(limiter.tryAcquire(other));
+        assertTrue(limiter.tryAcquire(other));
+        properties.setEnabled(false);
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+        assertTrue(limiter.tryAcquire(request("1.1.1.1")));
+    }
+
+    private void rule(String dimension, int capacity, double rate) {
+        RateLimitProperties.Rule rule = new RateLimitProperties.Rule();
+        rule.setPattern("/voucher-order/seckill/**");
+        rule.setDimension(dimension);
+        rule.setCapacity(capacity);
+        rule.setRate(rate);
+        properties.getRules().add(rule);
+    }
+
+    private static MockHttpServletRequest request(String remoteAddr) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/voucher-order/seckill/10");
+        request.setRemoteAddr(remoteAddr);
+        return request;
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisIdWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+@SpringBootTest
+class VoucherOrderConcurrencyTest {
+
+    private static final int THREADS = 200;
+    private static final int STOCK = 100;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    private final ExecutorService es = Executors.newFixedThreadPool(THREADS);
+
+    private Long voucherId;
+
+    @BeforeEach
+    void setUp() {
+        // 准备一张独立的秒杀券，避免影响已有数据
+        voucherId = redisIdWorker.nextId("test:voucher");
+        SeckillVoucher voucher = new SeckillVoucher()
+                .setVoucherId(voucherId)
+                .setStock(STOCK)
+                .setBeginTime(LocalDateTime.now().minusDays(1))
+                .setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(voucher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        seckillVoucherService.removeById(voucherId);
+    }
+
+    //同一用户并发下单（不同订单id），只能成功一单，库存只扣一次
+    @Test
+    void testOneOrderPerUserWithoutLock() throws InterruptedException {
+        long userId = 1L;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            es.submit(() -> {
+                try {
+                    start.await();
+                    voucherOrderService.createVoucherOrder(newOrder(userId));
+                } catch (Exception e) {
+                    log.error("下单异常", e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals(1, voucherOrderService.query().eq("voucher_id", voucherId).count().intValue());
+        assertEquals(STOCK - 1, seckillVoucherService.getById(voucherId).getStock().intValue());
+    }
+
+    //同一条消息重复投递（相同订单id）、批量中夹带重复用户，都只会落一单
+    @Test
+    void testBatchIsIdempotent() throws InterruptedException {
+        List<VoucherOrder> batch = new ArrayList<>();
+        for (long userId = 1; userId <= 10; userId++) {
+            batch.add(newOrder(userId));
+        }
+        // 同批次内同一用户的第二单
+        batch.add(newOrder(1L));
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            // 模拟多个消费者同时处理同一批消息
+            es.submit(() -> {
+                try {
+                    voucherOrderService.createVoucherOrders(batch);
+                } catch (Exception e) {
+                    log.error("批量下单异常", e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+
+        assertEquals(10, voucherOrderService.query().eq("voucher_id", voucherId).count().intValue());
+        assertEquals(STOCK - 10, seckillVoucherService.getById(voucherId).getStock().intValue());
+    }
+
+    private VoucherOrder newOrder(long userId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(redisIdWorker.nextId("order"));
+        order.setUserId(userId);
+        order.setVoucherId(voucherId);
+        return order;
+    }
+}